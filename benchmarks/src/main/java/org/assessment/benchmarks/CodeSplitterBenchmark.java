@@ -0,0 +1,123 @@
+package org.assessment.benchmarks;
+
+import org.assessment.codesplitter.BracesNotMatchException;
+import org.assessment.codesplitter.CodeSplitter;
+import org.assessment.codesplitter.LineCalculator;
+import org.assessment.codesplitter.SearchStrategy;
+import org.assessment.codesplitter.Splitter;
+import org.assessment.codesplitter.TokenCalculator;
+import org.assessment.codesplitter.WeightedCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeSplitterBenchmark {
+
+    @Param({"100", "300"})
+    public int lineCount;
+
+    @Param({"3"})
+    public int nestingDepth;
+
+    @Param({"0.7"})
+    public double statementDensity;
+
+    @Param({"8"})
+    public int segments;
+
+    @Param({"DYNAMIC"})
+    public SearchStrategy strategy;
+
+    private ArrayList<String> codeLines;
+    // equal lines in other String objects; split alternates between both so the lexer cache never hits
+    private ArrayList<String> otherCodeLines;
+    private boolean other;
+    private File submissionFile;
+    private File refCodeFile;
+    private LineCalculator lineCalculator;
+    private WeightedCalculator weightedCalculator;
+    private TokenCalculator tokenCalculator;
+    private ArrayList<Integer> splits;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, BracesNotMatchException, CloneNotSupportedException {
+        SubmissionGenerator generator = new SubmissionGenerator(nestingDepth, statementDensity, 42);
+        codeLines = generator.submission(lineCount);
+        otherCodeLines = new ArrayList<>();
+        for (String line : codeLines) {
+            otherCodeLines.add(new String(line));
+        }
+        submissionFile = File.createTempFile("Submission", ".java");
+        Files.write(submissionFile.toPath(), codeLines);
+        refCodeFile = File.createTempFile("RefCode", ".java");
+        Files.write(refCodeFile.toPath(), generator.reference(lineCount, segments));
+        lineCalculator = new LineCalculator(refCodeFile);
+        weightedCalculator = new WeightedCalculator(refCodeFile, 3, 2, 2, 1);
+        tokenCalculator = new TokenCalculator(refCodeFile);
+        splits = CodeSplitter.findBestSplits(codeLines, lineCalculator, SearchStrategy.DYNAMIC).getKey();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        submissionFile.delete();
+        refCodeFile.delete();
+    }
+
+    @Benchmark
+    public ArrayList<Integer> split() throws BracesNotMatchException {
+        other = !other;
+        return Splitter.split(other ? otherCodeLines : codeLines);
+    }
+
+    @Benchmark
+    public double lineCalculate() {
+        return lineCalculator.calculate(splits, codeLines);
+    }
+
+    @Benchmark
+    public double weightedCalculate() {
+        return weightedCalculator.calculate(splits, codeLines);
+    }
+
+    @Benchmark
+    public double tokenCalculate() {
+        return tokenCalculator.calculate(splits, codeLines);
+    }
+
+    @Benchmark
+    public ArrayList<ArrayList<Integer>> calculateBestSplitsforFileLine() throws Exception {
+        return CodeSplitter.calculateBestSplitsforFile(submissionFile, lineCalculator, strategy);
+    }
+
+    @Benchmark
+    public ArrayList<ArrayList<Integer>> calculateBestSplitsforFileWeighted() throws Exception {
+        return CodeSplitter.calculateBestSplitsforFile(submissionFile, weightedCalculator, strategy);
+    }
+
+    @Benchmark
+    public ArrayList<ArrayList<Integer>> calculateBestSplitsforFileToken() throws Exception {
+        return CodeSplitter.calculateBestSplitsforFile(submissionFile, tokenCalculator, strategy);
+    }
+}
@@ -0,0 +1,109 @@
+package org.assessment.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates synthetic Java submissions and reference codes for the benchmarks. The same seed always gives the
+ * same code.
+ */
+public class SubmissionGenerator {
+
+    private static final String[] CONTROL_STATEMENTS = {
+            "if (value > limit) {",
+            "while (index < count) {",
+            "for (int i = 0; i < count; i++) {",
+            "} else {"
+    };
+
+    private final int nestingDepth;
+    private final double statementDensity;
+    private final Random random;
+
+    /**
+     * @param nestingDepth     Maximum depth of nested control statements inside the method body.
+     * @param statementDensity Probability that a generated item is a plain statement instead of a control block.
+     * @param seed             Seed of the random generator.
+     */
+    public SubmissionGenerator(int nestingDepth, double statementDensity, long seed) {
+        this.nestingDepth = nestingDepth;
+        this.statementDensity = statementDensity;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates a submission of about lineCount lines: a class with one method whose body holds the code.
+     */
+    public ArrayList<String> submission(int lineCount) {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add("public class Submission {");
+        lines.add("    public static void main(String[] args) {");
+        lines.addAll(body(Math.max(lineCount - 4, 1)));
+        lines.add("    }");
+        lines.add("}");
+        return lines;
+    }
+
+    /**
+     * Generates a reference code with the given number of ASSESSMENT segments and about lineCount code lines.
+     */
+    public ArrayList<String> reference(int lineCount, int segments) {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add("// RefCode");
+        for (int i = 0; i < segments; i++) {
+            lines.add("/** ASSESSMENT");
+            lines.add(" * @grade ");
+            lines.add(" * @feedback ");
+            lines.add(" */");
+            lines.addAll(body(Math.max(lineCount / segments, 1)));
+        }
+        return lines;
+    }
+
+    private ArrayList<String> body(int lineCount) {
+        ArrayList<String> lines = new ArrayList<>();
+        int depth = 0;
+        int statement = 0;
+        // whether the innermost open block is the body of an if, so that it may continue with an else
+        boolean inIf = false;
+        while (lines.size() + depth < lineCount) {
+            String indent = indent(depth);
+            if (depth < nestingDepth && random.nextDouble() >= statementDensity) {
+                String control = CONTROL_STATEMENTS[random.nextInt(CONTROL_STATEMENTS.length)];
+                if (control.startsWith("}")) {
+                    if (!inIf) {
+                        continue;
+                    }
+                    // close the if body and open its else body at the same depth
+                    lines.add(indent(depth - 1) + control);
+                    inIf = false;
+                    continue;
+                }
+                lines.add(indent + control);
+                inIf = control.startsWith("if");
+                depth++;
+            } else if (depth > 0 && random.nextDouble() < 0.2) {
+                depth--;
+                inIf = false;
+                lines.add(indent(depth) + "}");
+            } else if (random.nextDouble() < 0.05) {
+                lines.add("");
+            } else {
+                lines.add(indent + "value = value + " + statement++ + ";");
+            }
+        }
+        while (depth > 0) {
+            depth--;
+            lines.add(indent(depth) + "}");
+        }
+        return lines;
+    }
+
+    private static String indent(int depth) {
+        StringBuilder indent = new StringBuilder("        ");
+        for (int i = 0; i < depth; i++) {
+            indent.append("    ");
+        }
+        return indent.toString();
+    }
+}
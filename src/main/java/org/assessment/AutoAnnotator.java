@@ -0,0 +1,186 @@
+import org.assessment.codesplitter.LineCalculator;
+import org.assessment.codesplitter.MultiReferenceSearch;
+import org.assessment.codesplitter.PointCalculator;
+import org.assessment.codesplitter.ReferenceCode;
+import org.assessment.codesplitter.SearchStrategy;
+import org.assessment.codesplitter.SplitCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless segmentation of a whole folder: computes the split lines of every submission in parallel and inserts an
+ * empty ASSESSMENT block at each of them, so that graders can start grading right away.
+ */
+public class AutoAnnotator {
+
+    private static final String BLOCK = "/** ASSESSMENT\n * @grade \n * @feedback \n */\n";
+
+    private final File refCode;
+    private final PointCalculator calculator;
+    private final SplitCache splitCache;
+    private final int threads;
+
+    /**
+     * Constructs an AutoAnnotator.
+     *
+     * @param refCode    The reference code the submissions are split against.
+     * @param splitCache The cache consulted before any split search is started.
+     * @param threads    The number of files annotated at the same time.
+     * @throws IOException If the reference code cannot be read.
+     */
+    public AutoAnnotator(File refCode, SplitCache splitCache, int threads) throws IOException {
+        this.refCode = refCode;
+        this.calculator = new LineCalculator(refCode);
+        this.splitCache = splitCache;
+        this.threads = threads;
+    }
+
+    /**
+     * Annotates every submission of the folder. Reference code files and files that already have ASSESSMENT blocks
+     * are left untouched.
+     *
+     * @param folder      The folder holding the submissions.
+     * @param refCodeName The name shared by the reference code files, as in the GUI.
+     * @return One line of output per submission, sorted by file name.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the files.
+     */
+    public ArrayList<String> annotateFolder(File folder, String refCodeName) throws InterruptedException {
+        ArrayList<File> references = MultiReferenceSearch.findReferences(folder, refCodeName);
+        File[] files = folder.listFiles(file -> file.isFile() && CodeAssessment.getAllFileTypesFilter().accept(file));
+        ArrayList<Callable<String>> tasks = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!references.contains(file)) {
+                    tasks.add(() -> annotate(file));
+                }
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<String> results = new ArrayList<>();
+            for (Future<String> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    results.add(String.valueOf(e.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Inserts an empty ASSESSMENT block at each split line of the file, unless the file already has blocks.
+     *
+     * @param file The submission to annotate.
+     * @return A line describing what was done with the file.
+     */
+    public String annotate(File file) {
+        long start = System.nanoTime();
+        try {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            ArrayList<Integer> lineStarts = new ArrayList<>();
+            ArrayList<String> lines = splitLines(text, lineStarts);
+            int blocks = new ReferenceCode(lines).getGradeCount();
+            if (blocks == calculator.refCodeSize()) {
+                return file.getName() + " skipped, already has " + blocks + " blocks.";
+            } else if (blocks > 0) {
+                return file.getName() + " skipped, has " + blocks + " of " + calculator.refCodeSize() + " blocks.";
+            }
+            ArrayList<Integer> splits = splitCache.calculateBestSplits(lines, refCode, calculator, SearchStrategy.DYNAMIC);
+            String separator = text.contains("\r\n") ? "\r\n" : "\n";
+            StringBuilder annotated = new StringBuilder(text.length() + splits.size() * BLOCK.length());
+            int copied = 0;
+            for (int split : splits) {
+                int offset = lineStarts.get(split);
+                annotated.append(text, copied, offset).append(BLOCK.replace("\n", separator));
+                copied = offset;
+            }
+            annotated.append(text, copied, text.length());
+            write(file, annotated.toString());
+            return file.getName() + " annotated with " + splits.size() + " blocks in " + (System.nanoTime() - start) / 1000000 + " ms.";
+        } catch (Exception e) {
+            return file.getName() + " failed: " + e;
+        }
+    }
+
+    /**
+     * Splits text into lines the way a Scanner reads a file and records the offset each line starts at.
+     */
+    private static ArrayList<String> splitLines(String text, ArrayList<Integer> lineStarts) {
+        ArrayList<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = start;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            lineStarts.add(start);
+            lines.add(text.substring(start, end));
+            if (end < text.length() && text.charAt(end) == '\r' && end + 1 < text.length() && text.charAt(end + 1) == '\n') {
+                end++;
+            }
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Replaces the file by writing a temporary file next to it and moving it over the original, so that a grader
+     * never sees a half written submission.
+     */
+    private static void write(File file, String content) throws IOException {
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            Files.write(tmp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Annotates a folder from the command line: AutoAnnotator folder [reference code name].
+     *
+     * @param args The folder and optionally the reference code name, RefCode by default.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: AutoAnnotator <folder> [reference code name]");
+            return;
+        }
+        File folder = new File(args[0]);
+        String refCodeName = args.length > 1 ? args[1] : "RefCode";
+        ArrayList<File> references = MultiReferenceSearch.findReferences(folder, refCodeName);
+        if (references.isEmpty()) {
+            System.out.println(refCodeName + " not found!");
+            return;
+        }
+        long start = System.nanoTime();
+        AutoAnnotator annotator = new AutoAnnotator(references.get(0), new SplitCache(new File(CodeAssessment.SPLIT_CACHE_FOLDER), 256), Runtime.getRuntime().availableProcessors());
+        ArrayList<String> results = annotator.annotateFolder(folder, refCodeName);
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.println(results.size() + " files done in " + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+}
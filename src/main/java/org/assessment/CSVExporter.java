@@ -24,40 +24,77 @@ public class CSVExporter {
 
         if (subfolders != null) {
             for (File subfolder : subfolders) {
-                String folderName = subfolder.getName();
-                Map<String, Map<String, Integer>> studentData = new HashMap<>();
-
-                for (File file : subfolder.listFiles(File::isFile)) {
-                    String fileName = file.getName();
-                    String studentId = getStudentId(fileName);
-
-                    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                        String line;
-                        int sum = 0;
-
-                        Map<String, Integer> individualScores = new LinkedHashMap<>(); // Preserves insertion order
-
-                        int section = 1;
-                        while ((line = reader.readLine()) != null) {
-                            if (line.contains("@grade")) {
-                                int score = extractAndSumGrades(line);
-                                sum += score;
-                                individualScores.put("Score" + section, score);
-                                section++;
-                            }
-                        }
+                results.put(subfolder.getName(), processSubfolder(subfolder));
+            }
+        }
 
-                        individualScores.put("Total", sum);
-                        studentData.put(studentId, individualScores);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        addMissingStudents(results, rootFolder, studentMailsFile);
+
+        return results;
+    }
+
+    /**
+     * Extracts the grades of every student file in a subfolder.
+     *
+     * @param subfolder The subfolder containing student files.
+     * @return A map of student IDs to their grades.
+     */
+    static Map<String, Map<String, Integer>> processSubfolder(File subfolder) {
+        Map<String, Map<String, Integer>> studentData = new HashMap<>();
+
+        File[] files = subfolder.listFiles(File::isFile);
+        if (files != null) {
+            for (File file : files) {
+                Map<String, Integer> individualScores = readGrades(file);
+                if (individualScores != null) {
+                    studentData.put(getStudentId(file.getName()), individualScores);
                 }
+            }
+        }
+
+        return studentData;
+    }
 
-                results.put(folderName, studentData);
+    /**
+     * Extracts the grades of a single student file.
+     *
+     * @param file The student file.
+     * @return The scores of the file in order (Score1, Score2, ...) followed by their "Total", or null if the file
+     * cannot be read.
+     */
+    static Map<String, Integer> readGrades(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int sum = 0;
+
+            Map<String, Integer> individualScores = new LinkedHashMap<>(); // Preserves insertion order
+
+            int section = 1;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains("@grade")) {
+                    int score = extractAndSumGrades(line);
+                    sum += score;
+                    individualScores.put("Score" + section, score);
+                    section++;
+                }
             }
+
+            individualScores.put("Total", sum);
+            return individualScores;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
+    /**
+     * Adds an empty grade map to every subfolder for each student of the mail file that has no grades anywhere.
+     *
+     * @param results The processed data containing subfolder names and student grades.
+     * @param rootFolder The root folder containing the student mail file.
+     * @param studentMailsFile The filename of the student mails within the root folder.
+     */
+    static void addMissingStudents(Map<String, Map<String, Map<String, Integer>>> results, String rootFolder, String studentMailsFile) {
         File mailsFile = new File(rootFolder, studentMailsFile);
         try (Scanner scanner = new Scanner(mailsFile)) {
             while (scanner.hasNextLine()) {
@@ -75,8 +112,6 @@ public class CSVExporter {
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
-
-        return results;
     }
 
     /**
@@ -85,7 +120,7 @@ public class CSVExporter {
      * @param fileName The name of the file.
      * @return The extracted student ID.
      */
-    private static String getStudentId(String fileName) {
+    static String getStudentId(String fileName) {
         int dotIndex = fileName.lastIndexOf('.');
         return (dotIndex != -1) ? fileName.substring(0, dotIndex) : fileName;
     }
@@ -1,6 +1,11 @@
 
-import org.assessment.codesplitter.CodeSplitter;
-import org.assessment.codesplitter.LineCalculator;
+import org.assessment.codesplitter.LexedSource;
+import org.assessment.codesplitter.MultiReferenceSearch;
+import org.assessment.codesplitter.ReferenceCache;
+import org.assessment.codesplitter.ReferenceCode;
+import org.assessment.codesplitter.ReferenceResult;
+import org.assessment.codesplitter.SourceLexer;
+import org.assessment.codesplitter.SplitCache;
 
 import javax.swing.*;
 import javax.swing.Timer;
@@ -15,8 +20,7 @@ import java.net.URI;
 import java.nio.file.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -26,16 +30,18 @@ public class CodeAssessment {
 
     private final JFrame frame;
     private final JTextArea textArea;
-    private Stack<String> contentStack = new Stack<>();
+    private final UndoHistory undoHistory;
     private final JFileChooser fileChooser;
     private final File defaultFolder;
     private boolean unsavedChanges = false;
     private int commentCount;
     private static int fileCommentCount;
 
-    Pattern commentPattern = Pattern.compile("@grade");
-
     private static String refCodeFile;
+    // the reference code variant that matches the open file best, and its number of segments
+    private int variantCommentCount;
+    private static String variantRefCodeFile;
+    private static ArrayList<File> refCodeFiles;
     private static File currentFile;
     private final LineNumberArea lineNumberArea;
     private final JTextField fileNameLabel;
@@ -45,20 +51,42 @@ public class CodeAssessment {
     private static boolean hasTextAfterGrade;
     private int currentLineCount;
     private int startIndexofAssesment;
-    private FeedbackTree feedbackTree;
+    private volatile FeedbackTree feedbackTree;
+    private int lastFeedbackOffset = -1;
+    private final GradeTable gradeTable;
+    private FolderWatcher folderWatcher;
     private final JTree commentsTree;
+    private final JTextField feedbackSearchField;
+    private final JCheckBox allAssignmentsCheckBox;
+    private final WorkspaceFeedback workspaceFeedback;
     private final JTextField clickCounterLabel;
     private int doubleClickCount = 0;
     private Timer tooltipTimer;
     private String username;
     private static final String FEEDBACK_STATS_SUFFIX = "_stats.txt";
     private static final String FEEDBACK_STATS_FOLDER = "stats";
+    static final String SPLIT_CACHE_FOLDER = "split_cache";
+    private static final String FEEDBACK_CACHE_FOLDER = "feedback_cache";
+    // removed and inserted characters kept for undo, about 2 MB
+    private static final int UNDO_HISTORY_CHARACTERS = 1 << 20;
+    // rows of the comments tree that expanding grades may fill
+    private static final int EXPANDED_FEEDBACK_ROWS = 200;
+    private static final SplitCache splitCache = new SplitCache(new File(SPLIT_CACHE_FOLDER), 256);
 
     // Patterns for both Java and C++
-    private static final Pattern EXTERNAL_DS_PATTERN = Pattern.compile(
-            "\\b(ArrayList|LinkedList|Vector|Queue|Deque|PriorityQueue|TreeSet|HashSet|LinkedHashSet|TreeMap|HashMap|LinkedHashMap|" +  // Java
-                    "std\\s*::\\s*(vector|list|deque|queue|priority_queue|set|multiset|map|multimap|unordered_set|unordered_map))\\b"  // C++
-    );
+    private static final Set<String> EXTERNAL_DS_JAVA = new HashSet<>(Arrays.asList(
+            "ArrayList", "LinkedList", "Vector", "Queue", "Deque", "PriorityQueue", "TreeSet", "HashSet", "LinkedHashSet",
+            "TreeMap", "HashMap", "LinkedHashMap"));
+    private static final Set<String> EXTERNAL_DS_CPP = new HashSet<>(Arrays.asList(   // preceded by std::
+            "vector", "list", "deque", "queue", "priority_queue", "set", "multiset", "map", "multimap", "unordered_set",
+            "unordered_map"));
+    private static final Set<String> MODIFYING_METHODS = new HashSet<>(Arrays.asList(
+            "push", "pop", "add", "remove", "put", "clear", "set"));
+
+    private long documentVersion;
+    private long lexedVersion = -1;
+    private LexedSource lexedSource;
+    private final ControlBodyIndex controlBodies;
 
     /**
      * Constructor for the CodeAssessment class, sets up the GUI and initializes components.
@@ -80,8 +108,11 @@ public class CodeAssessment {
         textArea = new JTextArea();
         frame.add(new JScrollPane(textArea), BorderLayout.CENTER);
         textArea.setEditable(false);
+        trackDocumentVersion();
+        controlBodies = new ControlBodyIndex(textArea);
+        undoHistory = new UndoHistory(textArea, UNDO_HISTORY_CHARACTERS);
 
-        lineNumberArea = new LineNumberArea(textArea);
+        lineNumberArea = new LineNumberArea(textArea, this::showReferenceResults);
         frame.add(lineNumberArea, BorderLayout.WEST);
 
         JPanel buttonPanel = new JPanel(new BorderLayout());
@@ -140,6 +171,14 @@ public class CodeAssessment {
 
         commentsTree = new JTree();
         commentsTree.setVisible(false);
+        // every row is one line of text, so the tree can lay out only the rows it shows
+        commentsTree.setRowHeight(Math.max(commentsTree.getFontMetrics(commentsTree.getFont()).getHeight() + 2, 18));
+        commentsTree.setLargeModel(true);
+
+        feedbackSearchField = new JTextField();
+        feedbackSearchField.setToolTipText("Search feedback, best matches for this split point first");
+        allAssignmentsCheckBox = new JCheckBox("All assignments");
+        allAssignmentsCheckBox.setToolTipText("Suggest feedback given in the other assignments for similar reference code");
 
         clickCounterLabel = new JTextField("REUSED FEEDBACKS: ____");
         clickCounterLabel.setEditable(false);
@@ -167,6 +206,10 @@ public class CodeAssessment {
         paramPanel.add(fontSizeLabel);
         paramPanel.add(fontSizeComboBox);
 
+        JPanel feedbackSearchPanel = new JPanel(new BorderLayout());
+        feedbackSearchPanel.add(feedbackSearchField, BorderLayout.CENTER);
+        feedbackSearchPanel.add(allAssignmentsCheckBox, BorderLayout.EAST);
+        feedbackPanel.add(feedbackSearchPanel, BorderLayout.NORTH);
         feedbackPanel.add(new JScrollPane(commentsTree), BorderLayout.CENTER);
 
         fileChooser = new JFileChooser();
@@ -255,7 +298,7 @@ public class CodeAssessment {
                     if (readOnlyRadioButton.isSelected()) {
                         insertCommentPhrase();
                         saveFile();
-                        paintLabels(currentFile.toPath(), commentPattern);
+                        paintLabels(currentFile.toPath());
                     } else {
                         setFeedbackTree(offset);
                     }
@@ -264,24 +307,27 @@ public class CodeAssessment {
         });
 
         textArea.addKeyListener(new KeyAdapter() {
+            // the document version when the first key still held down was pressed, or -1 if no key is down
+            private long versionAtPress = -1;
+
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (versionAtPress < 0) {
+                    versionAtPress = documentVersion;
+                }
+            }
+
             @Override
             public void keyReleased(KeyEvent e) {
+                boolean edited = versionAtPress >= 0 && versionAtPress != documentVersion;
+                versionAtPress = -1;
 
                 int caretPosition = textArea.getCaretPosition();
-                String controlStatementRegex = "\\b(if|else\\s*if|else|for|while|do|switch|case|try|catch|finally|goto|throw)\\b.*\\{";
-                Pattern controlPattern = Pattern.compile(controlStatementRegex);
-                Matcher matcher = controlPattern.matcher(textArea.getText());
-                while (matcher.find()) {
-                    int controlStart = matcher.start();
-                    int openingBracePos = textArea.getText().indexOf("{", controlStart);
-
-                    int closingBracePos = findMatchingClosingBrace(openingBracePos);
-
-                    if (caretPosition > openingBracePos && caretPosition < closingBracePos) {
-                        JOptionPane.showMessageDialog(frame, "Cannot insert comments inside control statement bodies!", "Insertion Error", JOptionPane.WARNING_MESSAGE);
-                        undo();
-                        return;
-                    }
+                if (edited && controlBodies.isInsideBody(caretPosition)) {
+                    // only revert what the key stroke typed; moving the caret into a body changes nothing
+                    JOptionPane.showMessageDialog(frame, "Cannot insert comments inside control statement bodies!", "Insertion Error", JOptionPane.WARNING_MESSAGE);
+                    undo();
+                    return;
                 }
 
                 unsavedChanges = true;
@@ -291,8 +337,7 @@ public class CodeAssessment {
                     undo();
                 }
                 else if (!(((e.getModifiers() & KeyEvent.META_MASK) != 0) || ((e.getModifiers() & KeyEvent.CTRL_MASK) != 0))) {
-                    contentStack.push(textArea.getText());
-                    paintLabels(currentFile.toPath(), commentPattern);
+                    paintLabels(currentFile.toPath());
                 }
             }
         });
@@ -355,11 +400,87 @@ public class CodeAssessment {
             }
         });
 
+        feedbackSearchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchFeedback();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchFeedback();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchFeedback();
+            }
 
+            private void searchFeedback() {
+                if (feedbackTree != null && commentsTree.isVisible() && lastFeedbackOffset >= 0) {
+                    setFeedbackTree(lastFeedbackOffset);
+                }
+            }
+        });
+
+        allAssignmentsCheckBox.addItemListener(new ItemListener() {
+            @Override
+            public void itemStateChanged(ItemEvent e) {
+                if (feedbackTree != null && commentsTree.isVisible() && lastFeedbackOffset >= 0) {
+                    setFeedbackTree(lastFeedbackOffset);
+                }
+            }
+        });
+
+        gradeTable = new GradeTable(defaultFolder.toPath(), SPLIT_CACHE_FOLDER, FEEDBACK_CACHE_FOLDER);
+        workspaceFeedback = new WorkspaceFeedback(defaultFolder.toPath(), new File(FEEDBACK_CACHE_FOLDER),
+                () -> SwingUtilities.invokeLater(this::workspaceSuggestionsChanged),
+                SPLIT_CACHE_FOLDER, FEEDBACK_CACHE_FOLDER, FEEDBACK_STATS_FOLDER);
+        try {
+            folderWatcher = new FolderWatcher(this::filesChanged, SPLIT_CACHE_FOLDER, FEEDBACK_CACHE_FOLDER);
+            folderWatcher.watch(defaultFolder.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
         frame.setVisible(true);
     }
 
+    /**
+     * Applies changes made to graded files, by this or another grader, to the grade table and the feedback index,
+     * and refreshes the views that show them.
+     *
+     * @param paths The changed files or folders, reported by the folder watcher.
+     */
+    private void filesChanged(Set<Path> paths) {
+        for (Path path : paths) {
+            gradeTable.update(path);
+            workspaceFeedback.update(path);
+        }
+        FeedbackTree tree = feedbackTree;
+        if (tree != null) {
+            tree.filesChanged(paths);
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (currentFile != null && paths.contains(currentFile.toPath().toAbsolutePath().normalize())) {
+                paintLabels(currentFile.toPath());
+            }
+            if (tree != null && tree == feedbackTree && commentsTree.isVisible() && tree.refreshTreeModel()) {
+                expandGrades();
+            }
+        });
+    }
+
+    /**
+     * Shows the suggestions of the other assignments that were computed in the background, if they are shown.
+     */
+    private void workspaceSuggestionsChanged() {
+        FeedbackTree tree = feedbackTree;
+        if (tree != null && allAssignmentsCheckBox.isSelected() && commentsTree.isVisible() && tree.refreshTreeModel()) {
+            expandGrades();
+        }
+    }
+
     private void sendMail() {
 
         String subject = JOptionPane.showInputDialog(null, "Enter the exam name:", "Email Subject", JOptionPane.QUESTION_MESSAGE );
@@ -393,11 +514,10 @@ public class CodeAssessment {
                 currentLineCount = textArea.getLineCount();
                 lineNumberArea.repaint();
                 findRefCode();
-                paintLabels(currentFile.toPath(), commentPattern);
-                contentStack.clear();
-                contentStack.push(textArea.getText());
-
+                paintLabels(currentFile.toPath());
                 detectAndMarkViolations();
+                undoHistory.clear();
+                lineNumberArea.resegment(false);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -427,6 +547,9 @@ public class CodeAssessment {
                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(currentFile), StandardCharsets.UTF_8));
                 textArea.write(writer);
                 writer.close();
+                if (feedbackTree != null) {
+                    feedbackTree.fileSaved(currentFile.toPath());
+                }
 
             } catch (IOException e) {
                 e.printStackTrace();
@@ -446,20 +569,9 @@ public class CodeAssessment {
             int lineEnd = textArea.getLineEndOffset(selectedRowIndex);
             String line = textArea.getText(lineStart, lineEnd - lineStart).trim();
 
-            String controlStatementRegex = "\\b(if|else\\s*if|else|for|while|do|switch|case|try|catch|finally|goto|throw)\\b.*\\{";
-            Pattern controlPattern = Pattern.compile(controlStatementRegex);
-            Matcher matcher = controlPattern.matcher(textArea.getText());
-
-            while (matcher.find()) {
-                int controlStart = matcher.start();
-                int openingBracePos = textArea.getText().indexOf("{", controlStart);
-
-                int closingBracePos = findMatchingClosingBrace(openingBracePos);
-
-                if (caretPosition > openingBracePos && caretPosition < closingBracePos) {
-                    JOptionPane.showMessageDialog(frame, "Cannot insert comments inside control statement bodies!", "Insertion Error", JOptionPane.WARNING_MESSAGE);
-                    return;
-                }
+            if (controlBodies.isInsideBody(caretPosition)) {
+                JOptionPane.showMessageDialog(frame, "Cannot insert comments inside control statement bodies!", "Insertion Error", JOptionPane.WARNING_MESSAGE);
+                return;
             }
 
             if (line.contains("ASSESSMENT") || line.contains("@grade") || line.contains("@feedback") || line.contains("*/")) {
@@ -504,30 +616,6 @@ public class CodeAssessment {
         }
     }
 
-    /**
-     * Finds the matching closing brace for a given opening brace.
-     *
-     * @param openingBracePos The position of the opening brace.
-     * @return The position of the matching closing brace, or -1 if not found.
-     */
-    private int findMatchingClosingBrace(int openingBracePos) {
-        int balance = 1;
-        for (int i = openingBracePos + 1; i < textArea.getText().length(); i++) {
-            char c = textArea.getText().charAt(i);
-            if (c == '{') {
-                balance++;
-            } else if (c == '}') {
-                balance--;
-            }
-            if (balance == 0) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-
-
     /**
      * Saves the current file and opens the next file in the same folder.
      */
@@ -585,9 +673,7 @@ public class CodeAssessment {
     }
 
     private void undo() {
-        if (!contentStack.isEmpty()) {
-            String previousContent = contentStack.pop();
-            textArea.setText(previousContent);
+        if (undoHistory.undo()) {
             lineNumberArea.repaint();
             unsavedChanges = true;
         }
@@ -606,11 +692,11 @@ public class CodeAssessment {
             fileNameLabel.setText(currentFile.getName());
             currentLineCount = textArea.getLineCount();
             lineNumberArea.repaint();
-            paintLabels(currentFile.toPath(), commentPattern);
-            contentStack.clear();
-            contentStack.push(textArea.getText());
-
+            useBaseReference();
+            paintLabels(currentFile.toPath());
             detectAndMarkViolations();
+            undoHistory.clear();
+            lineNumberArea.resegment(false);
 
             //findRefCode();
             setFeedbackTree(0);
@@ -621,32 +707,21 @@ public class CodeAssessment {
     }
 
     /**
-     * Counts the number of comment phrases in a specified file.
+     * Counts the number of grade tags in a specified file, reusing the parsed file while it is unchanged on disk.
      *
-     * @param file          The file to count comment phrases in.
-     * @param commentPattern The regular expression pattern to match comment phrases.
-     * @return The number of comment phrases found in the file.
+     * @param file The file to count grade tags in.
+     * @return The number of grade tags found in the file.
      */
-    private int countComments(Path file, Pattern commentPattern) {
-        int commentCount = 0;
+    private int countComments(Path file) {
         hasTextAfterGrade = true;
-        try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Matcher matcher = commentPattern.matcher(line);
-                if (matcher.find()) {
-                    commentCount++;
-                    int commentIndex = matcher.end();
-                    if (commentIndex >= line.length() - 1) {
-                        hasTextAfterGrade = false;
-                    }
-                }
-            }
+        try {
+            ReferenceCode reference = ReferenceCache.get(file.toFile());
+            hasTextAfterGrade = reference.hasTextAfterGrade();
+            return reference.getGradeCount();
         } catch (Exception e) {
             e.printStackTrace();
         }
-
-        return commentCount;
+        return 0;
     }
 
     /**
@@ -677,6 +752,7 @@ public class CodeAssessment {
         String refCode = refCodeField.getText();
 
         commentCount = -1;
+        refCodeFiles = null;
 
         File folder = new File(folderPath);
 
@@ -688,33 +764,92 @@ public class CodeAssessment {
                 for (File file : files) {
                     if (file.isFile() && (file.getName().contains(refCode))) {
                         refCodeFile = file.getPath();
-                        commentCount = countComments(Paths.get((file.getPath())), commentPattern);
+                        commentCount = countComments(Paths.get((file.getPath())));
                         commentCountField.setText("Number of Segments: " + commentCount);
                         break;
                     }
                 }
             }
+            refCodeFiles = MultiReferenceSearch.findReferences(folder, refCode);
         }
+        useBaseReference();
         if (commentCount == -1) {
             JOptionPane.showMessageDialog(null, refCodeField.getText() + " not found!");
             commentCountField.setText("Number of Segments: Not found!");
         } else {
-            feedbackTree = new FeedbackTree(folderPath);
+            Runnable revalidated = () -> filesChanged(Collections.emptySet());
+            FeedbackIndex feedbackIndex = workspaceFeedback.index(Paths.get(folderPath), revalidated);
+            feedbackTree = feedbackIndex == null
+                    ? new FeedbackTree(folderPath, new File(FEEDBACK_CACHE_FOLDER), revalidated)
+                    : new FeedbackTree(folderPath, feedbackIndex);
+            if (folderWatcher != null) {
+                folderWatcher.watch(Paths.get(folderPath));
+            }
             setFeedbackTree(0);
             commentsTree.setVisible(true);
         }
 
     }
 
+    /**
+     * Shows which reference code variant matches the open submission best, with the score of every variant in the
+     * tooltip.
+     *
+     * @param results The results per reference code variant, or null if there are none.
+     */
+    private void showReferenceResults(ArrayList<ReferenceResult> results) {
+        if (commentCount == -1) {
+            return;
+        }
+        ReferenceResult best = results == null ? null : MultiReferenceSearch.best(results);
+        if (best == null || results.size() < 2) {
+            useBaseReference();
+            paintLabelColors();
+            commentCountField.setText("Number of Segments: " + variantCommentCount);
+            commentCountField.setToolTipText(null);
+            return;
+        }
+        // the count, the split and the reference segments all come from the chosen variant
+        try {
+            variantCommentCount = ReferenceCache.get(best.getRefCode()).getGradeCount();
+            variantRefCodeFile = best.getRefCode().getPath();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            useBaseReference();
+        }
+        paintLabelColors();
+        commentCountField.setText("Number of Segments: " + variantCommentCount + " (" + new File(variantRefCodeFile).getName() + ")");
+        StringBuilder tooltip = new StringBuilder("<html>");
+        for (ReferenceResult result : results) {
+            tooltip.append(result == best ? "<b>" + result + "</b>" : result.toString()).append("<br>");
+        }
+        commentCountField.setToolTipText(tooltip.append("</html>").toString());
+    }
+
+    /**
+     * Compares the open file with the reference code found by findRefCode again, until a segmentation of the file
+     * picks another variant.
+     */
+    private void useBaseReference() {
+        variantCommentCount = commentCount;
+        variantRefCodeFile = refCodeFile;
+    }
+
     /**
      * Paints labels with different colors based on the comparison of comment counts.
      *
-     * @param file          The file to check comment counts for.
-     * @param commentPattern The regular expression pattern to match comment phrases.
+     * @param file The file to check comment counts for.
      */
-    private void paintLabels(Path file, Pattern commentPattern) {
-        fileCommentCount = countComments(file, commentPattern);
-        if (fileCommentCount != commentCount) {
+    private void paintLabels(Path file) {
+        fileCommentCount = countComments(file);
+        paintLabelColors();
+    }
+
+    /**
+     * Paints the labels for the last counted comments of the open file against the reference code.
+     */
+    private void paintLabelColors() {
+        if (fileCommentCount != variantCommentCount) {
             fileNameLabel.setForeground(Color.RED);
             commentCountField.setForeground(Color.RED);
         } else {
@@ -738,7 +873,8 @@ public class CodeAssessment {
         String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
         String outputCsv = "Grades_" + timeStamp + ".csv";
 
-        Map<String, Map<String, Map<String, Integer>>> results = csvExporter.processFolder(rootFolder, "student_mails.txt");
+        Map<String, Map<String, Map<String, Integer>>> results = gradeTable.snapshot();
+        CSVExporter.addMissingStudents(results, rootFolder, "student_mails.txt");
         csvExporter.generateCsv(results, outputCsv);
 
         JOptionPane.showMessageDialog(null, "CSV file generated successfully!");
@@ -849,6 +985,7 @@ public class CodeAssessment {
 
 
     private void setFeedbackTree(int offset){
+        lastFeedbackOffset = offset;
         String RefCode = null;
         if (textArea.getText().toLowerCase().contains("refcode2")) {
             RefCode = "refcode2";
@@ -856,23 +993,59 @@ public class CodeAssessment {
             RefCode = "refcode3";
         }
 
-        TreeModel treeModel = feedbackTree.buildTreeModel(findAssessmentOrderNumber(offset), RefCode).getModel();
+        int splitID = findAssessmentOrderNumber(offset);
+        String query = feedbackSearchField.getText().trim();
+        java.util.List<String> segment = allAssignmentsCheckBox.isSelected() ? referenceSegment(splitID) : null;
+        TreeModel treeModel;
+        if (segment != null) {
+            treeModel = feedbackTree.buildWorkspaceTreeModel(workspaceFeedback, splitID, segment, refCodeField.getText());
+        } else if (query.isEmpty()) {
+            treeModel = feedbackTree.buildTreeModel(splitID, RefCode);
+        } else {
+            treeModel = feedbackTree.buildSearchTreeModel(query, splitID, RefCode);
+        }
         commentsTree.setModel(treeModel);
-        expandAllNodes(new TreePath(treeModel.getRoot()), commentsTree);
+        expandGrades();
     }
 
-    private void expandAllNodes(TreePath parent, JTree tree) {
-        // Traverse the tree recursively and expand each node
-        TreeNode node = (TreeNode) parent.getLastPathComponent();
-        for (int i = 0; i < node.getChildCount(); i++) {
-            TreeNode child = node.getChildAt(i);
-            TreePath path = parent.pathByAddingChild(child);
-            expandAllNodes(path, tree);
+    /**
+     * Returns the lines of the reference code segment that belongs to a split point.
+     *
+     * @param splitID The split point identifier.
+     * @return The lines, or null if there is no reference code or no such segment.
+     */
+    private java.util.List<String> referenceSegment(int splitID) {
+        if (variantRefCodeFile == null) {
+            return null;
+        }
+        try {
+            ReferenceCode reference = ReferenceCache.get(new File(variantRefCodeFile));
+            return splitID >= 1 && splitID <= reference.size() ? reference.getSegment(splitID - 1) : null;
+        } catch (FileNotFoundException e) {
+            return null;
         }
+    }
 
-        // Expand the current node
-        tree.expandPath(parent);
+    /**
+     * Expands the root of the comments tree and the first grades, as long as their feedback fits in a few screens.
+     * The other grades stay collapsed, so their feedback nodes are only created when the user opens them.
+     */
+    private void expandGrades() {
+        TreeModel treeModel = commentsTree.getModel();
+        Object root = treeModel.getRoot();
+        TreePath rootPath = new TreePath(root);
+        commentsTree.expandPath(rootPath);
+        int rows = treeModel.getChildCount(root);
+        for (int i = 0; i < treeModel.getChildCount(root); i++) {
+            Object grade = treeModel.getChild(root, i);
+            rows += treeModel instanceof FeedbackTreeModel ? ((FeedbackTreeModel) treeModel).getFeedbackCount(grade) : treeModel.getChildCount(grade);
+            if (rows > EXPANDED_FEEDBACK_ROWS) {
+                break;
+            }
+            commentsTree.expandPath(rootPath.pathByAddingChild(grade));
+        }
     }
+
     /**
      * Removes the existing JavaDoc block and inserts the grade and feedback at the specified position.
      *
@@ -930,41 +1103,24 @@ public class CodeAssessment {
             return;
         }
 
-        String code = textArea.getText();
+        LexedSource source = lexedSource();
         StringBuilder violations = new StringBuilder();
 
         // Check for use of disallowed external data structures
-        Matcher dsMatcher = EXTERNAL_DS_PATTERN.matcher(code);
-        if (dsMatcher.find()) {
+        if (usesExternalDataStructure(source)) {
             violations.append("// WARNING! Use of external data structures other than stack is forbidden!\n");
         }
 
         // Check for modifications to arrays and collections
-        String[] modificationPatterns = {
-                "\\w+\\s*\\[\\s*\\w+\\s*]\\s*=\\s*[^=]",                 // array[index] = value;
-                "\\.push\\s*\\(",                                        // stack.push(...)
-                "\\.pop\\s*\\(",                                         // stack.pop()
-                "\\.add\\s*\\(",                                         // list.add(...)
-                "\\.remove\\s*\\(",                                      // list.remove(...)
-                "\\.put\\s*\\(",                                         // map.put(...)
-                "\\.clear\\s*\\(",                                       // collection.clear()
-                "\\.set\\s*\\("                                          // list.set(...)
-        };
-
-        for (String pattern : modificationPatterns) {
-            Pattern p = Pattern.compile(pattern);
-            Matcher m = p.matcher(code);
-            if (m.find()) {
-                violations.append("// WARNING! Modifying arrays or collection values is not allowed!\n");
-                break;
-            }
+        if (modifiesArrayOrCollection(source)) {
+            violations.append("// WARNING! Modifying arrays or collection values is not allowed!\n");
         }
 
         // If violations found, prepend them to the file
         if (violations.length() > 0) {
             try {
                 // Remove existing violation comments
-                String cleanedCode = code.replaceAll("(?m)^\\s*//\\s*WARNING!.*\\n", "");
+                String cleanedCode = source.getText().replaceAll("(?m)^\\s*//\\s*WARNING!.*\\n", "");
                 textArea.setText(violations.toString() + cleanedCode);
                 unsavedChanges = true;
             } catch (Exception e) {
@@ -975,12 +1131,104 @@ public class CodeAssessment {
 
 
 
+    /**
+     * Checks for Java collections or C++ std:: containers in the code, ignoring comments and string literals.
+     */
+    private static boolean usesExternalDataStructure(LexedSource source) {
+        for (int i = 0; i < source.tokenCount(); i++) {
+            if (source.kind(i) != LexedSource.IDENTIFIER) {
+                continue;
+            }
+            if (EXTERNAL_DS_JAVA.contains(source.tokenText(i))) {
+                return true;
+            }
+            if (i >= 3 && source.is(i - 3, "std") && source.symbol(i - 2) == ':' && source.symbol(i - 1) == ':'
+                    && EXTERNAL_DS_CPP.contains(source.tokenText(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks for assignments to array elements (array[index] = value) and calls of modifying collection methods
+     * (push, pop, add, remove, put, clear, set), ignoring comments and string literals.
+     */
+    private static boolean modifiesArrayOrCollection(LexedSource source) {
+        int count = source.tokenCount();
+        for (int i = 0; i < count; i++) {
+            char symbol = source.symbol(i);
+            if (symbol == '[' && i > 0 && i + 3 < count && isWord(source, i - 1) && isWord(source, i + 1)
+                    && source.symbol(i + 2) == ']' && source.symbol(i + 3) == '=') {
+                boolean comparison = i + 4 < count && source.symbol(i + 4) == '=' && source.start(i + 4) == source.end(i + 3);
+                if (!comparison) {
+                    return true;
+                }
+            } else if (symbol == '.' && i + 2 < count && source.kind(i + 1) == LexedSource.IDENTIFIER
+                    && source.symbol(i + 2) == '(' && MODIFYING_METHODS.contains(source.tokenText(i + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWord(LexedSource source, int token) {
+        return source.kind(token) == LexedSource.IDENTIFIER || source.kind(token) == LexedSource.NUMBER;
+    }
+
+    /**
+     * Counts document changes, following the text area when JTextArea.read replaces its document.
+     */
+    private void trackDocumentVersion() {
+        DocumentListener versionListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                documentVersion++;
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                documentVersion++;
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        };
+        textArea.getDocument().addDocumentListener(versionListener);
+        textArea.addPropertyChangeListener("document", e -> {
+            if (e.getOldValue() != null) {
+                ((Document) e.getOldValue()).removeDocumentListener(versionListener);
+            }
+            if (e.getNewValue() != null) {
+                ((Document) e.getNewValue()).addDocumentListener(versionListener);
+            }
+            documentVersion++;
+        });
+    }
+
+    /**
+     * Returns the tokens of the current document, lexing it again only after it changed.
+     */
+    private LexedSource lexedSource() {
+        if (lexedSource == null || lexedVersion != documentVersion) {
+            lexedSource = SourceLexer.lex(textArea.getText());
+            lexedVersion = documentVersion;
+        }
+        return lexedSource;
+    }
+
     /**
      * Main method to start the CodeAssessment application.
      *
-     * @param args The command-line arguments.
+     * @param args The command-line arguments; --annotate folder [reference code name] annotates the folder
+     *             without opening the GUI.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--annotate")) {
+            AutoAnnotator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
 
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
@@ -993,67 +1241,159 @@ public class CodeAssessment {
      * A nested class that represents the LineNumberArea for displaying line numbers.
      */
     static class LineNumberArea extends JPanel {
-        private final JTextArea textArea;
+        private static final String ASSESSMENT_MARKER = "ASSESSMENT";
 
-        public LineNumberArea(JTextArea textArea) {
+        private final JTextArea textArea;
+        private final SegmentationService segmentationService;
+        private final Consumer<ArrayList<ReferenceResult>> onReferenceResults;
+        // lines that mention ASSESSMENT, kept up to date on every document change
+        private BitSet assessmentLines = new BitSet();
+        private boolean assessmentLinesStale = true;
+        private int lineCount;
+        // the split lines last painted, and the same lines as a bit set
+        private ArrayList<Integer> splitLines;
+        private final BitSet splitLineSet = new BitSet();
+
+        public LineNumberArea(JTextArea textArea, Consumer<ArrayList<ReferenceResult>> onReferenceResults) {
             this.textArea = textArea;
+            this.onReferenceResults = onReferenceResults;
+            this.segmentationService = new SegmentationService(splitCache, this::segmentationDone);
             setPreferredSize(new Dimension(30, 0));
             setBorder(new MatteBorder(0, 0, 0, 1, Color.GRAY));
-            textArea.getDocument().addDocumentListener(new DocumentListener() {
+            DocumentListener documentListener = new DocumentListener() {
                 @Override
                 public void insertUpdate(DocumentEvent e) {
+                    updateAssessmentLines(e);
                     repaint();
+                    resegment(true);
                 }
 
                 @Override
                 public void removeUpdate(DocumentEvent e) {
+                    updateAssessmentLines(e);
                     repaint();
+                    resegment(true);
                 }
 
                 @Override
                 public void changedUpdate(DocumentEvent e) {
                     repaint();
                 }
+            };
+            textArea.getDocument().addDocumentListener(documentListener);
+            // JTextArea.read replaces the document, so follow it to the new one
+            textArea.addPropertyChangeListener("document", e -> {
+                if (e.getOldValue() != null) {
+                    ((Document) e.getOldValue()).removeDocumentListener(documentListener);
+                }
+                if (e.getNewValue() != null) {
+                    ((Document) e.getNewValue()).addDocumentListener(documentListener);
+                }
+                assessmentLinesStale = true;
             });
         }
 
+        /**
+         * Moves the marks of the lines after an edit by the number of lines it added or removed, and checks the lines
+         * it touched again.
+         */
+        private void updateAssessmentLines(DocumentEvent e) {
+            if (assessmentLinesStale) {
+                return;
+            }
+            Element root = e.getDocument().getDefaultRootElement();
+            int first = root.getElementIndex(e.getOffset());
+            int last = e.getType() == DocumentEvent.EventType.INSERT ? root.getElementIndex(e.getOffset() + e.getLength()) : first;
+            int added = root.getElementCount() - lineCount;
+            if (added != 0) {
+                BitSet shifted = assessmentLines.get(0, first + 1);
+                int moved = first + 1 - Math.min(added, 0);
+                for (int line = assessmentLines.nextSetBit(moved); line >= 0; line = assessmentLines.nextSetBit(line + 1)) {
+                    shifted.set(line + added);
+                }
+                assessmentLines = shifted;
+                lineCount = root.getElementCount();
+            }
+            for (int line = first; line <= last; line++) {
+                assessmentLines.set(line, lineMentionsAssessment(line));
+            }
+        }
+
+        private void recomputeAssessmentLines() {
+            assessmentLines.clear();
+            lineCount = textArea.getLineCount();
+            for (int line = 0; line < lineCount; line++) {
+                if (lineMentionsAssessment(line)) {
+                    assessmentLines.set(line);
+                }
+            }
+            assessmentLinesStale = false;
+        }
+
+        private boolean lineMentionsAssessment(int lineIndex) {
+            String lineText = getLineText(lineIndex);
+            return lineText != null && lineText.contains(ASSESSMENT_MARKER);
+        }
+
+        /**
+         * Requests new split points for the current content in the background, dropping any stale request.
+         *
+         * @param debounce Whether to wait until the user stops editing before computing.
+         */
+        public void resegment(boolean debounce) {
+            if (fileCommentCount >= 1 || currentFile == null || refCodeFiles == null || refCodeFiles.isEmpty()) {
+                segmentationService.cancel();
+                repaint();
+                onReferenceResults.accept(null);
+            } else if (debounce) {
+                segmentationService.requestLater(textArea.getText(), refCodeFiles);
+            } else {
+                segmentationService.requestNow(textArea.getText(), refCodeFiles);
+            }
+        }
+
+        private void segmentationDone() {
+            repaint();
+            onReferenceResults.accept(segmentationService.getReferenceResults());
+        }
+
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
+            if (assessmentLinesStale) {
+                recomputeAssessmentLines();
+            }
+            ArrayList<Integer> currentSplitLines = segmentationService.getSplitLines();
+            if (currentSplitLines != splitLines) {
+                splitLines = currentSplitLines;
+                splitLineSet.clear();
+                if (splitLines != null) {
+                    splitLines.forEach(splitLineSet::set);
+                }
+            }
+
             Rectangle clip = g.getClipBounds();
             FontMetrics fm = textArea.getFontMetrics(textArea.getFont());
             int fontHeight = fm.getHeight();
             int baseline = fm.getAscent();
-            int lineHeight = textArea.getLineCount() * fontHeight;
-
-            ArrayList<ArrayList<Integer>> lists = null;
+            Font plain = getFont().deriveFont(Font.PLAIN);
+            Font bold = getFont().deriveFont(Font.BOLD);
 
-            if ((fileCommentCount < 1) && (currentFile != null)) {
-                try {
-                    lists = CodeSplitter.calculateBestSplitsforFile(currentFile, new LineCalculator(new File(refCodeFile)));
-                } catch (Exception e) {
-                    System.out.println(e.getMessage());
-                }
-            }
-
-            for (int i = 0; i <= lineHeight / fontHeight; i++) {
+            // only the lines whose number reaches into the clip are painted
+            int firstLine = Math.max(0, clip.y / fontHeight);
+            int lastLine = Math.min(lineCount, (clip.y + clip.height) / fontHeight + 1);
+            for (int i = firstLine; i <= lastLine; i++) {
                 int y = i * fontHeight + baseline;
-                String lineText = getLineText(i);
-
-                if (lineText != null && lineText.contains("ASSESSMENT")) {
-                    g.setColor(Color.RED);
-                    g.setFont(g.getFont().deriveFont(Font.BOLD));
-                } else if ((fileCommentCount < 1 ) && (lists != null) && (lists.get(0).contains(i))) {
+                if (assessmentLines.get(i) || fileCommentCount < 1 && splitLineSet.get(i)) {
                     g.setColor(Color.RED);
-                    g.setFont(g.getFont().deriveFont(Font.BOLD));
+                    g.setFont(bold);
                 } else {
                     g.setColor(Color.BLACK);
-                    g.setFont(g.getFont().deriveFont(Font.PLAIN));
+                    g.setFont(plain);
                 }
 
                 g.drawString(String.valueOf(i + 1), 5, y);
             }
-            textArea.repaint();
         }
 
         private String getLineText(int lineIndex) {
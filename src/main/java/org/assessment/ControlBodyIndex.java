@@ -0,0 +1,215 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The bodies of the control statements of a text component's document, for telling whether an offset lies inside
+ * one. A control statement is a line with one of the control keywords followed by a "{" on the same line; its body
+ * runs from the first "{" after the keyword to the matching "}". Bodies are nested or disjoint, so an offset is inside
+ * one exactly when the bodies opened before it close after it; the largest such close is kept per body, in order,
+ * which makes the lookup a binary search.
+ * <p>
+ * The offsets are document positions, so they move with edits by themselves. An edit only forces the bodies to be
+ * found again when it adds or removes a brace or changes which lines are control statements; everything else, such
+ * as typing a comment, costs one regex match on the edited line.
+ */
+public class ControlBodyIndex implements DocumentListener {
+
+    private static final Pattern CONTROL_STATEMENT = Pattern.compile("\\b(if|else\\s*if|else|for|while|do|switch|case|try|catch|finally|goto|throw)\\b.*\\{");
+
+    private Document document;
+    private boolean dirty = true;
+    // every brace of the document, in order
+    private final ArrayList<Position> braces = new ArrayList<>();
+    // the opening brace of every control statement, in order, with its matching brace or null if it has none
+    private final ArrayList<Position> opens = new ArrayList<>();
+    private final ArrayList<Position> closes = new ArrayList<>();
+    // widest[i] is the body among the first i + 1 that closes last, or -1 if none of them closes
+    private int[] widest = new int[0];
+
+    /**
+     * Constructs a ControlBodyIndex that follows the document of a text component, also when it is replaced.
+     *
+     * @param component The text component.
+     */
+    public ControlBodyIndex(JTextComponent component) {
+        setDocument(component.getDocument());
+        component.addPropertyChangeListener("document", e -> setDocument((Document) e.getNewValue()));
+    }
+
+    private void setDocument(Document document) {
+        if (this.document != null) {
+            this.document.removeDocumentListener(this);
+        }
+        this.document = document;
+        if (document != null) {
+            document.addDocumentListener(this);
+        }
+        dirty = true;
+    }
+
+    /**
+     * Checks whether an offset lies strictly between the braces of a control statement body.
+     *
+     * @param offset The offset in the document.
+     * @return True if the offset is inside a control statement body.
+     */
+    public boolean isInsideBody(int offset) {
+        if (dirty) {
+            rebuild();
+        }
+        int last = lastBefore(opens, offset) - 1;
+        return last >= 0 && widest[last] >= 0 && closes.get(widest[last]).getOffset() > offset;
+    }
+
+    /**
+     * Returns the number of positions of the sorted list that are before the offset.
+     */
+    private static int lastBefore(ArrayList<Position> positions, int offset) {
+        int low = 0;
+        int high = positions.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positions.get(middle).getOffset() < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void rebuild() {
+        braces.clear();
+        opens.clear();
+        closes.clear();
+        dirty = false;
+        if (document == null) {
+            widest = new int[0];
+            return;
+        }
+        try {
+            String text = document.getText(0, document.getLength());
+            Map<Integer, Integer> matches = new HashMap<>();
+            ArrayDeque<Integer> open = new ArrayDeque<>();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '{') {
+                    braces.add(document.createPosition(i));
+                    open.push(i);
+                } else if (c == '}') {
+                    braces.add(document.createPosition(i));
+                    if (!open.isEmpty()) {
+                        matches.put(open.pop(), i);
+                    }
+                }
+            }
+            int lineStart = 0;
+            while (lineStart <= text.length()) {
+                int lineEnd = text.indexOf('\n', lineStart);
+                if (lineEnd == -1) {
+                    lineEnd = text.length();
+                }
+                int brace = controlBrace(text.substring(lineStart, lineEnd));
+                if (brace != -1) {
+                    Integer close = matches.get(lineStart + brace);
+                    opens.add(document.createPosition(lineStart + brace));
+                    closes.add(close == null ? null : document.createPosition(close));
+                }
+                lineStart = lineEnd + 1;
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        widest = new int[opens.size()];
+        int best = -1;
+        for (int i = 0; i < opens.size(); i++) {
+            if (closes.get(i) != null && (best == -1 || closes.get(i).getOffset() > closes.get(best).getOffset())) {
+                best = i;
+            }
+            widest[i] = best;
+        }
+    }
+
+    /**
+     * Finds the opening brace of a control statement on a line.
+     *
+     * @return The index of the brace in the line, or -1 if the line is no control statement.
+     */
+    private static int controlBrace(String line) {
+        Matcher matcher = CONTROL_STATEMENT.matcher(line);
+        return matcher.find() ? line.indexOf('{', matcher.start()) : -1;
+    }
+
+    /**
+     * Checks that the control statements of the lines between two offsets are still the ones known, and marks the
+     * bodies to be found again if not.
+     */
+    private void checkLines(int start, int end) throws BadLocationException {
+        Element root = document.getDefaultRootElement();
+        for (int line = root.getElementIndex(start); line <= root.getElementIndex(end) && !dirty; line++) {
+            Element element = root.getElement(line);
+            int lineStart = element.getStartOffset();
+            int lineEnd = Math.min(element.getEndOffset(), document.getLength());
+            int brace = controlBrace(document.getText(lineStart, lineEnd - lineStart));
+            int first = lastBefore(opens, lineStart);
+            int known = lastBefore(opens, lineEnd) - first;
+            if (brace == -1 ? known != 0 : known != 1 || opens.get(first).getOffset() != lineStart + brace) {
+                dirty = true;
+            }
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (dirty) {
+            return;
+        }
+        try {
+            String inserted = document.getText(e.getOffset(), e.getLength());
+            // positions at offset 0 stay there when text is inserted in front of them
+            boolean braceAtStart = e.getOffset() == 0 && !braces.isEmpty() && braces.get(0).getOffset() == 0;
+            if (braceAtStart || inserted.indexOf('{') >= 0 || inserted.indexOf('}') >= 0) {
+                dirty = true;
+            } else {
+                checkLines(e.getOffset(), e.getOffset() + e.getLength());
+            }
+        } catch (BadLocationException ex) {
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (dirty) {
+            return;
+        }
+        try {
+            // the positions of removed braces collapse onto the offset of the removal
+            int offset = e.getOffset();
+            int collapsed = lastBefore(braces, offset + 1) - lastBefore(braces, offset);
+            String next = offset < document.getLength() ? document.getText(offset, 1) : "";
+            if (collapsed > (next.equals("{") || next.equals("}") ? 1 : 0)) {
+                dirty = true;
+            } else {
+                checkLines(offset, offset);
+            }
+        } catch (BadLocationException ex) {
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+}
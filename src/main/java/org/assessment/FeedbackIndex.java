@@ -0,0 +1,605 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An in-memory index of the feedback written in the graded files of a folder. The folder is read once; after that
+ * the feedback given for a split point is looked up without touching the disk. An index opened with a store folder
+ * is also saved there, so that the folder is not read again next time.
+ */
+public class FeedbackIndex {
+
+    private static final Pattern REFCODE_MARKER = Pattern.compile("refcode\\w*");
+    private static final long SAVE_DELAY_MILLIS = 2000;
+    private static final ScheduledExecutorService STORE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "feedback-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path root;
+    private final File storeFile;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    // the stored index answers lookups until the files it holds are loaded; updates wait in pendingUpdates until then
+    private FeedbackStore store;
+    private final Set<Path> pendingUpdates = new LinkedHashSet<>();
+    private final Map<Path, FileFeedback> files = new LinkedHashMap<>();
+    // feedback -> file -> the first snippet of the file written under that feedback
+    private final Map<String, LinkedHashMap<Path, Snippet>> snippets = new HashMap<>();
+    // split ID -> grade -> feedback -> number of times it was given, one map per content filter, built on demand
+    private final Map<String, Map<Integer, TreeMap<String, LinkedHashMap<String, Integer>>>> aggregates = new HashMap<>();
+    // word index over all feedback, prepared in the background or built on the first search
+    private FeedbackSearch search;
+    private int updates;
+
+    /**
+     * A single "@grade" line of a file together with the feedback on the line after it.
+     */
+    static class Entry {
+        final int splitID;
+        final String grade;
+        final String feedback;
+        final int line;
+
+        Entry(int splitID, String grade, String feedback, int line) {
+            this.splitID = splitID;
+            this.grade = grade;
+            this.feedback = feedback;
+            this.line = line;
+        }
+    }
+
+    /**
+     * The lines from a feedback line up to the next "@grade" line, which show the code the feedback was given for.
+     */
+    public static class Snippet {
+        private final Path file;
+        private final int startLine;
+        private final int endLine;
+        private final String text;
+
+        Snippet(Path file, int startLine, int endLine, String text) {
+            this.file = file;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.text = text;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return The index of the feedback line.
+         */
+        public int getStartLine() {
+            return startLine;
+        }
+
+        /**
+         * @return The index of the next "@grade" line, where the snippet ends.
+         */
+        public int getEndLine() {
+            return endLine;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * The feedback entries of one file, their snippets and the reference code variants the file names.
+     */
+    static class FileFeedback {
+        final List<Entry> entries;
+        final Set<String> markers;
+        final Map<String, Snippet> snippets;
+        final long modified;
+        final long size;
+
+        FileFeedback(List<Entry> entries, Set<String> markers, Map<String, Snippet> snippets, long modified, long size) {
+            this.entries = entries;
+            this.markers = markers;
+            this.snippets = snippets;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        /**
+         * Checks whether the file still has the modification time and size it had when it was read.
+         */
+        boolean isCurrent(Path file) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return attributes.isRegularFile() && attributes.lastModifiedTime().toMillis() == modified && attributes.size() == size;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        boolean sameAs(FileFeedback other) {
+            if (other == null || entries.size() != other.entries.size() || !markers.equals(other.markers)) {
+                return false;
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                Entry otherEntry = other.entries.get(i);
+                if (entry.splitID != otherEntry.splitID || !entry.grade.equals(otherEntry.grade)
+                        || !entry.feedback.equals(otherEntry.feedback)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(String contentFilter) {
+            return FeedbackIndex.matches(markers, contentFilter);
+        }
+    }
+
+    /**
+     * Checks whether a file with the given reference code variant markers passes a content filter.
+     */
+    static boolean matches(Set<String> markers, String contentFilter) {
+        if (contentFilter == null) {
+            return true;
+        }
+        for (String marker : markers) {
+            if (marker.contains(contentFilter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Constructs a FeedbackIndex and reads every file below the given folder.
+     *
+     * @param root The folder containing the graded files.
+     */
+    public FeedbackIndex(Path root) {
+        this(root, (File) null);
+    }
+
+    /**
+     * Constructs a FeedbackIndex, reads every file below the given folder and saves the index in the background.
+     *
+     * @param root      The folder containing the graded files.
+     * @param storeFile The file the index is saved in, or null to keep it in memory only.
+     */
+    public FeedbackIndex(Path root, File storeFile) {
+        this.root = root.toAbsolutePath().normalize();
+        this.storeFile = storeFile;
+        for (Path file : walk(this.root)) {
+            FileFeedback feedback = parse(file);
+            if (feedback != null) {
+                files.put(file, feedback);
+                addSnippets(file, feedback);
+            }
+        }
+        saveLater();
+        STORE_EXECUTOR.execute(this::prepareSearch);
+    }
+
+    private FeedbackIndex(Path root, File storeFile, FeedbackStore store) {
+        this.root = root;
+        this.storeFile = storeFile;
+        this.store = store;
+    }
+
+    /**
+     * Opens the index of a folder from the store folder if it was saved before, so that feedback can be looked up
+     * at once. The stored files are then loaded and every file whose modification time or size changed since is
+     * read again in the background. Without a saved index, the folder is read as by the constructor.
+     *
+     * @param root        The folder containing the graded files.
+     * @param storeFolder The folder the indexes are saved in.
+     * @param revalidated Called on the background thread once the changed files were read again, may be null.
+     * @return The index.
+     */
+    public static FeedbackIndex open(Path root, File storeFolder, Runnable revalidated) {
+        Path normalized = root.toAbsolutePath().normalize();
+        File storeFile = FeedbackStore.file(storeFolder, normalized);
+        FeedbackStore store = FeedbackStore.open(storeFile, normalized);
+        if (store == null) {
+            return new FeedbackIndex(normalized, storeFile);
+        }
+        FeedbackIndex index = new FeedbackIndex(normalized, storeFile, store);
+        STORE_EXECUTOR.execute(() -> {
+            index.revalidate();
+            if (revalidated != null) {
+                revalidated.run();
+            }
+        });
+        return index;
+    }
+
+    /**
+     * Replaces the stored index by the files it holds, then reads the files that changed, appeared or disappeared
+     * since they were stored, as well as the ones updated meanwhile.
+     */
+    private void revalidate() {
+        Map<Path, FileFeedback> stored;
+        try {
+            stored = store.files(root);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            stored = new LinkedHashMap<>();
+        }
+        Set<Path> changed;
+        synchronized (this) {
+            for (Map.Entry<Path, FileFeedback> file : stored.entrySet()) {
+                files.put(file.getKey(), file.getValue());
+                addSnippets(file.getKey(), file.getValue());
+            }
+            store = null;
+            changed = new LinkedHashSet<>(pendingUpdates);
+            pendingUpdates.clear();
+            notifyAll();
+        }
+        Set<Path> onDisk = new LinkedHashSet<>(walk(root));
+        for (Map.Entry<Path, FileFeedback> file : stored.entrySet()) {
+            if (!onDisk.contains(file.getKey()) || !file.getValue().isCurrent(file.getKey())) {
+                changed.add(file.getKey());
+            }
+        }
+        for (Path file : onDisk) {
+            if (!stored.containsKey(file)) {
+                changed.add(file);
+            }
+        }
+        for (Path file : changed) {
+            update(file);
+        }
+        prepareSearch();
+    }
+
+    /**
+     * Builds the search index from a copy of the files without holding the lock, so that the first search does not
+     * have to. The result is dropped if the files were updated meanwhile.
+     */
+    private void prepareSearch() {
+        List<FileFeedback> snapshot;
+        int seen;
+        synchronized (this) {
+            if (search != null || store != null) {
+                return;
+            }
+            snapshot = new ArrayList<>(files.values());
+            seen = updates;
+        }
+        FeedbackSearch prepared = new FeedbackSearch();
+        for (FileFeedback file : snapshot) {
+            prepared.add(file, 1);
+        }
+        synchronized (this) {
+            if (search == null && updates == seen) {
+                search = prepared;
+            }
+        }
+    }
+
+    /**
+     * Lists the regular files below a folder, leaving out the folder the index is saved in.
+     */
+    private List<Path> walk(Path folder) {
+        Path storeFolder = storeFile == null ? null : storeFile.getAbsoluteFile().toPath().normalize().getParent();
+        try (Stream<Path> paths = Files.walk(folder)) {
+            return paths.filter(path -> storeFolder == null || !path.startsWith(storeFolder))
+                    .filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Saves the index a little later, so that a burst of updates is written once.
+     */
+    private void saveLater() {
+        if (storeFile != null && saveScheduled.compareAndSet(false, true)) {
+            STORE_EXECUTOR.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void save() {
+        saveScheduled.set(false);
+        Map<Path, FileFeedback> filesCopy;
+        Map<Integer, TreeMap<String, LinkedHashMap<String, Integer>>> aggregateCopy = new HashMap<>();
+        Map<String, Snippet> snippetsCopy = new HashMap<>();
+        synchronized (this) {
+            filesCopy = new LinkedHashMap<>(files);
+            aggregate(null).forEach((splitID, grades) -> {
+                TreeMap<String, LinkedHashMap<String, Integer>> gradesCopy = new TreeMap<>();
+                grades.forEach((grade, feedback) -> gradesCopy.put(grade, new LinkedHashMap<>(feedback)));
+                aggregateCopy.put(splitID, gradesCopy);
+            });
+            snippets.forEach((feedback, snippetFiles) -> snippetsCopy.put(feedback, snippetFiles.values().iterator().next()));
+        }
+        try {
+            FeedbackStore.write(storeFile, root, filesCopy, aggregateCopy, snippetsCopy);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the folder this index was built from.
+     *
+     * @return The root folder.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Reads a file of the folder again after it was changed, created or deleted, and applies the difference to the
+     * feedback counts. A folder is read again with everything in it.
+     *
+     * @param path The file or folder that changed.
+     */
+    public synchronized void update(Path path) {
+        path = path.toAbsolutePath().normalize();
+        if (!path.startsWith(root)) {
+            return;
+        }
+        if (store != null) {
+            pendingUpdates.add(path);
+            return;
+        }
+        updates++;
+        Set<Path> affected = new LinkedHashSet<>();
+        for (Path known : files.keySet()) {
+            if (known.startsWith(path)) {
+                affected.add(known);
+            }
+        }
+        if (Files.isDirectory(path)) {
+            affected.addAll(walk(path));
+        } else {
+            affected.add(path);
+        }
+        for (Path file : affected) {
+            FileFeedback oldFeedback = files.get(file);
+            FileFeedback newFeedback = Files.isRegularFile(file) ? parse(file) : null;
+            if (oldFeedback != null) {
+                removeSnippets(file, oldFeedback);
+            }
+            if (newFeedback == null) {
+                files.remove(file);
+            } else {
+                files.put(file, newFeedback);
+                addSnippets(file, newFeedback);
+            }
+            if (oldFeedback != null && oldFeedback.sameAs(newFeedback)) {
+                continue;
+            }
+            for (Map.Entry<String, Map<Integer, TreeMap<String, LinkedHashMap<String, Integer>>>> aggregate : aggregates.entrySet()) {
+                String contentFilter = aggregate.getKey().isEmpty() ? null : aggregate.getKey();
+                if (oldFeedback != null && oldFeedback.matches(contentFilter)) {
+                    add(aggregate.getValue(), oldFeedback, -1);
+                }
+                if (newFeedback != null && newFeedback.matches(contentFilter)) {
+                    add(aggregate.getValue(), newFeedback, 1);
+                }
+            }
+            if (search != null) {
+                if (oldFeedback != null) {
+                    search.add(oldFeedback, -1);
+                }
+                if (newFeedback != null) {
+                    search.add(newFeedback, 1);
+                }
+            }
+        }
+        saveLater();
+    }
+
+    private void addSnippets(Path file, FileFeedback feedback) {
+        feedback.snippets.forEach((text, snippet) -> snippets.computeIfAbsent(text, key -> new LinkedHashMap<>()).put(file, snippet));
+    }
+
+    private void removeSnippets(Path file, FileFeedback feedback) {
+        for (String text : feedback.snippets.keySet()) {
+            LinkedHashMap<Path, Snippet> files = snippets.get(text);
+            if (files != null) {
+                files.remove(file);
+                if (files.isEmpty()) {
+                    snippets.remove(text);
+                }
+            }
+        }
+    }
+
+    private static void add(Map<Integer, TreeMap<String, LinkedHashMap<String, Integer>>> aggregate, FileFeedback file, int sign) {
+        for (Entry entry : file.entries) {
+            TreeMap<String, LinkedHashMap<String, Integer>> grades = aggregate.computeIfAbsent(entry.splitID, id -> new TreeMap<>());
+            LinkedHashMap<String, Integer> feedback = grades.computeIfAbsent(entry.grade, grade -> new LinkedHashMap<>());
+            if (feedback.merge(entry.feedback, sign, Integer::sum) <= 0) {
+                feedback.remove(entry.feedback);
+                if (feedback.isEmpty()) {
+                    grades.remove(entry.grade);
+                    if (grades.isEmpty()) {
+                        aggregate.remove(entry.splitID);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the feedback entries of a file.
+     *
+     * @param file The file to read.
+     * @return The entries of the file, or null if it cannot be read.
+     */
+    static FileFeedback parse(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return parse(file, Files.readAllLines(file), attributes.lastModifiedTime().toMillis(), attributes.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Extracts the feedback entries from the lines of a file. The n-th "@grade" line belongs to split ID n, and its
+     * feedback is read from the line that follows it; entries without feedback are left out.
+     *
+     * @param file  The file the lines were read from.
+     * @param lines The lines of the file.
+     * @return The entries of the file.
+     */
+    static FileFeedback parse(Path file, List<String> lines) {
+        return parse(file, lines, 0, -1);
+    }
+
+    private static FileFeedback parse(Path file, List<String> lines, long modified, long size) {
+        List<Entry> entries = new ArrayList<>();
+        Set<String> markers = new HashSet<>();
+        Map<String, Snippet> snippets = new HashMap<>();
+        int commentCount = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            Matcher matcher = REFCODE_MARKER.matcher(lines.get(i).toLowerCase());
+            while (matcher.find()) {
+                markers.add(matcher.group());
+            }
+            String line = lines.get(i).trim();
+            if (i < lines.size() - 1 && line.contains("@grade")) {
+                commentCount++;
+                String nextLine = lines.get(i + 1);
+                String gradeComment = line.length() > "@grade".length() + 2 ? line.substring("@grade".length() + 2).trim() : "";
+                String feedbackComment = nextLine.length() > "@feedback".length() + 3 ? nextLine.substring("@feedback".length() + 3).trim() : "";
+                if (!feedbackComment.isEmpty()) {
+                    entries.add(new Entry(commentCount, gradeComment, feedbackComment, i));
+                    if (!snippets.containsKey(feedbackComment)) {
+                        Snippet snippet = snippet(file, lines, i + 1);
+                        if (snippet != null) {
+                            snippets.put(feedbackComment, snippet);
+                        }
+                    }
+                }
+            }
+        }
+        return new FileFeedback(entries, markers, snippets, modified, size);
+    }
+
+    /**
+     * Collects the lines from the feedback line up to the next "@grade" line. The last block of a file has no such
+     * line and therefore no snippet.
+     */
+    private static Snippet snippet(Path file, List<String> lines, int feedbackLine) {
+        StringBuilder snippetBuilder = new StringBuilder();
+        for (int j = feedbackLine; j < lines.size(); j++) {
+            if (j > feedbackLine && lines.get(j).contains("@grade")) {
+                return new Snippet(file, feedbackLine, j, snippetBuilder.toString());
+            }
+            snippetBuilder.append(lines.get(j)).append(" \n ");
+        }
+        return null;
+    }
+
+    /**
+     * Returns the feedback given for a split point, grouped by grade.
+     *
+     * @param splitID       The split point identifier.
+     * @param contentFilter Optional reference code variant name, such as "refcode2", that files must mention. If
+     *                      null, all files are used.
+     * @return The feedback per grade in ascending grade order, each with the number of times it was given, in the
+     * order the feedback was first seen.
+     */
+    public synchronized TreeMap<String, LinkedHashMap<String, Integer>> getFeedback(int splitID, String contentFilter) {
+        if (store != null && contentFilter == null) {
+            return store.getFeedback(splitID);
+        }
+        awaitLoaded();
+        TreeMap<String, LinkedHashMap<String, Integer>> grades = aggregate(contentFilter).get(splitID);
+        TreeMap<String, LinkedHashMap<String, Integer>> copy = new TreeMap<>();
+        if (grades != null) {
+            grades.forEach((grade, feedback) -> copy.put(grade, new LinkedHashMap<>(feedback)));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a snippet of code that was given the feedback, taken from the first file that has one.
+     *
+     * @param feedback The feedback text.
+     * @return The snippet, or null if no file has one for this feedback.
+     */
+    public synchronized Snippet getSnippet(String feedback) {
+        if (store != null) {
+            return store.getSnippet(feedback, root);
+        }
+        LinkedHashMap<Path, Snippet> files = snippets.get(feedback);
+        return files == null ? null : files.values().iterator().next();
+    }
+
+    /**
+     * Searches the feedback of all files for text that has a word starting with each word of the query.
+     *
+     * @param query         The typed text.
+     * @param splitID       The split point the grader is at; feedback given there ranks first.
+     * @param contentFilter Optional reference code variant name, such as "refcode2", that files must mention. If
+     *                      null, all files are used.
+     * @param limit         The maximum number of matches.
+     * @return The best matches, best first, counted only over the files that pass the filter.
+     */
+    public synchronized List<FeedbackSearch.Match> search(String query, int splitID, String contentFilter, int limit) {
+        awaitLoaded();
+        if (search == null) {
+            search = new FeedbackSearch();
+            for (FileFeedback file : files.values()) {
+                search.add(file, 1);
+            }
+        }
+        return search.search(query, splitID, contentFilter, limit);
+    }
+
+    /**
+     * Waits until the files of the stored index are loaded. Only filtered lookups need them; the store has no
+     * markers per split point.
+     */
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (store != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Map<Integer, TreeMap<String, LinkedHashMap<String, Integer>>> aggregate(String contentFilter) {
+        String key = contentFilter == null ? "" : contentFilter;
+        Map<Integer, TreeMap<String, LinkedHashMap<String, Integer>>> aggregate = aggregates.get(key);
+        if (aggregate == null) {
+            aggregate = new HashMap<>();
+            for (FileFeedback file : files.values()) {
+                if (file.matches(contentFilter)) {
+                    add(aggregate, file, 1);
+                }
+            }
+            aggregates.put(key, aggregate);
+        }
+        return aggregate;
+    }
+}
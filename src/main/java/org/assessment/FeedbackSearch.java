@@ -0,0 +1,202 @@
+import java.util.*;
+
+/**
+ * A word-prefix index over the feedback texts of a FeedbackIndex, used for typeahead search. Every distinct grade
+ * and feedback pair is a document with a number; each word keeps the set of documents containing it as a bit set,
+ * and the words are kept in a sorted map, so the documents matching a typed prefix are the union of one range of
+ * the map. Matches are ranked by how often the feedback was given at the current split point, then by how often
+ * it was given at all, and only the best ones are sorted. The counts are kept per set of reference code variant
+ * markers of the files, since split points of different variants are not the same, so that a search can count
+ * only the files of the current variant as getFeedback does.
+ */
+public class FeedbackSearch {
+
+    // lower-cased word -> the numbers of the documents that contain it
+    private final TreeMap<String, BitSet> words = new TreeMap<>();
+    // grade + NUL + feedback -> document
+    private final Map<String, Document> documents = new HashMap<>();
+    private final ArrayList<Document> numbered = new ArrayList<>();
+    private final ArrayDeque<Integer> freeNumbers = new ArrayDeque<>();
+
+    private static final Comparator<Match> RANK = Comparator.comparingInt(Match::getSplitCount).reversed()
+            .thenComparing(Comparator.comparingInt(Match::getCount).reversed())
+            .thenComparing(Match::getFeedback)
+            .thenComparing(Match::getGrade);
+
+    private static class Document {
+        int number;
+        final String grade;
+        final String feedback;
+        final String[] words;
+        // markers of the files -> how often the feedback was given in files with those markers
+        final Map<Set<String>, Counts> counts = new HashMap<>();
+        int count;
+
+        Document(String grade, String feedback) {
+            this.grade = grade;
+            this.feedback = feedback;
+            this.words = words(feedback);
+        }
+    }
+
+    private static class Counts {
+        final Map<Integer, Integer> splitCounts = new HashMap<>();
+        int count;
+    }
+
+    /**
+     * A feedback text that matched a search.
+     */
+    public static class Match {
+        private final String grade;
+        private final String feedback;
+        private final int count;
+        private final int splitCount;
+
+        Match(String grade, String feedback, int count, int splitCount) {
+            this.grade = grade;
+            this.feedback = feedback;
+            this.count = count;
+            this.splitCount = splitCount;
+        }
+
+        public String getGrade() {
+            return grade;
+        }
+
+        public String getFeedback() {
+            return feedback;
+        }
+
+        /**
+         * @return The number of times the feedback was given with this grade.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return The number of times the feedback was given with this grade at the split point searched for.
+         */
+        public int getSplitCount() {
+            return splitCount;
+        }
+    }
+
+    private static String[] words(String text) {
+        return Arrays.stream(text.toLowerCase().split("[^\\p{L}\\p{N}]+")).filter(word -> !word.isEmpty()).distinct().toArray(String[]::new);
+    }
+
+    /**
+     * Adds or removes the entries of a file.
+     *
+     * @param file The feedback of the file.
+     * @param sign 1 to add the entries, -1 to remove them.
+     */
+    void add(FeedbackIndex.FileFeedback file, int sign) {
+        for (FeedbackIndex.Entry entry : file.entries) {
+            String key = entry.grade + '\0' + entry.feedback;
+            Document document = documents.get(key);
+            if (document == null) {
+                if (sign < 0) {
+                    continue;
+                }
+                document = new Document(entry.grade, entry.feedback);
+                document.number = freeNumbers.isEmpty() ? numbered.size() : freeNumbers.pop();
+                if (document.number == numbered.size()) {
+                    numbered.add(document);
+                } else {
+                    numbered.set(document.number, document);
+                }
+                documents.put(key, document);
+                for (String word : document.words) {
+                    words.computeIfAbsent(word, w -> new BitSet()).set(document.number);
+                }
+            }
+            document.count += sign;
+            Counts counts = document.counts.computeIfAbsent(file.markers, markers -> new Counts());
+            counts.count += sign;
+            if (counts.splitCounts.merge(entry.splitID, sign, Integer::sum) <= 0) {
+                counts.splitCounts.remove(entry.splitID);
+            }
+            if (counts.count <= 0) {
+                document.counts.remove(file.markers);
+            }
+            if (document.count <= 0) {
+                documents.remove(key);
+                numbered.set(document.number, null);
+                freeNumbers.push(document.number);
+                for (String word : document.words) {
+                    BitSet postings = words.get(word);
+                    postings.clear(document.number);
+                    if (postings.isEmpty()) {
+                        words.remove(word);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the feedback that has a word starting with each word of the query.
+     *
+     * @param query         The typed text.
+     * @param splitID       The split point the grader is at.
+     * @param contentFilter Optional reference code variant name that files must mention, or null for all files.
+     * @param limit         The maximum number of matches.
+     * @return The best matches, best first.
+     */
+    List<Match> search(String query, int splitID, String contentFilter, int limit) {
+        BitSet found = null;
+        for (String prefix : words(query)) {
+            BitSet matches = new BitSet();
+            for (BitSet postings : words.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+                matches.or(postings);
+            }
+            if (found == null) {
+                found = matches;
+            } else {
+                found.and(matches);
+            }
+            if (found.isEmpty()) {
+                break;
+            }
+        }
+        List<Match> results = new ArrayList<>();
+        if (found == null || limit <= 0) {
+            return results;
+        }
+        // keep the best matches in a heap whose head is the worst of them
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, RANK.reversed());
+        for (int number = found.nextSetBit(0); number >= 0; number = found.nextSetBit(number + 1)) {
+            Document document = numbered.get(number);
+            int count = 0;
+            int split = 0;
+            for (Map.Entry<Set<String>, Counts> counts : document.counts.entrySet()) {
+                if (FeedbackIndex.matches(counts.getKey(), contentFilter)) {
+                    count += counts.getValue().count;
+                    split += counts.getValue().splitCounts.getOrDefault(splitID, 0);
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(new Match(document.grade, document.feedback, count, split));
+                continue;
+            }
+            Match worst = best.peek();
+            if (split < worst.splitCount || split == worst.splitCount && count < worst.count) {
+                continue;
+            }
+            Match match = new Match(document.grade, document.feedback, count, split);
+            if (RANK.compare(match, worst) < 0) {
+                best.poll();
+                best.add(match);
+            }
+        }
+        results.addAll(best);
+        results.sort(RANK);
+        return results;
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A FeedbackIndex saved in a binary file that is read back in one piece when a folder is opened again. Every string
+ * is stored once and referred to by its number. The feedback of a split point is found through an offset table, and
+ * snippets through a table sorted by feedback, so both are read straight from the buffer without decoding the rest.
+ * The file is read into the heap rather than memory-mapped: a mapping stays open until it is garbage collected, and
+ * Windows refuses to replace a mapped file, so the index could never be saved again.
+ * <p>
+ * Layout, all numbers big-endian ints unless noted:
+ * <pre>
+ * header    magic, version, root string, strings offset, files offset, splits offset, snippets offset
+ * strings   count, count + 1 byte offsets, UTF-8 bytes
+ * files     count, per file: path, modified (long), size (long), markers, entries, snippets
+ * splits    count, (split ID, offset) sorted by split ID, per split: grades, each with its feedback and counts
+ * snippets  count, (feedback, path, start line, end line, text) sorted by feedback
+ * </pre>
+ */
+class FeedbackStore {
+
+    private static final int MAGIC = 0x43464249;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int SNIPPET_SIZE = 5 * 4;
+    private static final String FILE_SUFFIX = ".feedback";
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int stringsPos;
+    private final int filesPos;
+    private final int splitsPos;
+    private final int snippetsPos;
+    private final String[] strings;
+
+    private FeedbackStore(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.stringsPos = buffer.getInt(12);
+        this.filesPos = buffer.getInt(16);
+        this.splitsPos = buffer.getInt(20);
+        this.snippetsPos = buffer.getInt(24);
+        this.stringCount = buffer.getInt(stringsPos);
+        this.strings = new String[stringCount];
+    }
+
+    /**
+     * Returns the file a folder's feedback is stored in.
+     *
+     * @param folder The folder holding the stored indexes.
+     * @param root   The graded folder.
+     * @return The store file, named after a hash of the graded folder's path.
+     */
+    static File file(File folder, Path root) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(root.toString().getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(folder, name + FILE_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a store file.
+     *
+     * @param file The store file.
+     * @param root The graded folder the store must have been written for.
+     * @return The store, or null if the file does not exist, belongs to another folder or cannot be read.
+     */
+    static FeedbackStore open(File file, Path root) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the buffer is full
+            }
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            buffer.flip();
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            for (int pos = 12; pos < HEADER_SIZE; pos += 4) {
+                if (buffer.getInt(pos) < HEADER_SIZE || buffer.getInt(pos) > buffer.limit() - 4) {
+                    return null;
+                }
+            }
+            FeedbackStore store = new FeedbackStore(buffer);
+            return root.toString().equals(store.string(buffer.getInt(8))) ? store : null;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private synchronized String string(int id) {
+        String string = strings[id];
+        if (string == null) {
+            int start = buffer.getInt(stringsPos + 4 + id * 4);
+            int end = buffer.getInt(stringsPos + 8 + id * 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(stringsPos + 8 + stringCount * 4 + start);
+            view.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+            strings[id] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Reads the feedback given for a split point in all files, as stored.
+     *
+     * @param splitID The split point identifier.
+     * @return The feedback per grade with its counts.
+     */
+    TreeMap<String, LinkedHashMap<String, Integer>> getFeedback(int splitID) {
+        TreeMap<String, LinkedHashMap<String, Integer>> grades = new TreeMap<>();
+        int count = buffer.getInt(splitsPos);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = buffer.getInt(splitsPos + 4 + middle * 8);
+            if (id < splitID) {
+                low = middle + 1;
+            } else if (id > splitID) {
+                high = middle - 1;
+            } else {
+                int pos = splitsPos + 4 + count * 8 + buffer.getInt(splitsPos + 8 + middle * 8);
+                int gradeCount = buffer.getInt(pos);
+                pos += 4;
+                for (int g = 0; g < gradeCount; g++) {
+                    LinkedHashMap<String, Integer> feedback = new LinkedHashMap<>();
+                    grades.put(string(buffer.getInt(pos)), feedback);
+                    int feedbackCount = buffer.getInt(pos + 4);
+                    pos += 8;
+                    for (int f = 0; f < feedbackCount; f++) {
+                        feedback.put(string(buffer.getInt(pos)), buffer.getInt(pos + 4));
+                        pos += 8;
+                    }
+                }
+                break;
+            }
+        }
+        return grades;
+    }
+
+    /**
+     * Reads the snippet stored for a feedback text.
+     *
+     * @param feedback The feedback text.
+     * @param root     The graded folder the snippet paths are relative to.
+     * @return The snippet, or null if there is none.
+     */
+    FeedbackIndex.Snippet getSnippet(String feedback, Path root) {
+        int low = 0;
+        int high = buffer.getInt(snippetsPos) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int pos = snippetsPos + 4 + middle * SNIPPET_SIZE;
+            int comparison = string(buffer.getInt(pos)).compareTo(feedback);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return new FeedbackIndex.Snippet(root.resolve(string(buffer.getInt(pos + 4))), buffer.getInt(pos + 8),
+                        buffer.getInt(pos + 12), string(buffer.getInt(pos + 16)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the feedback of every stored file.
+     *
+     * @param root The graded folder the file paths are relative to.
+     * @return The feedback per file, in the order they were stored.
+     */
+    LinkedHashMap<Path, FeedbackIndex.FileFeedback> files(Path root) {
+        LinkedHashMap<Path, FeedbackIndex.FileFeedback> files = new LinkedHashMap<>();
+        ByteBuffer view = buffer.duplicate();
+        view.position(filesPos);
+        int fileCount = view.getInt();
+        for (int i = 0; i < fileCount; i++) {
+            Path file = root.resolve(string(view.getInt()));
+            long modified = view.getLong();
+            long size = view.getLong();
+            Set<String> markers = new HashSet<>();
+            for (int m = view.getInt(); m > 0; m--) {
+                markers.add(string(view.getInt()));
+            }
+            int entryCount = view.getInt();
+            List<FeedbackIndex.Entry> entries = new ArrayList<>(entryCount);
+            for (int e = 0; e < entryCount; e++) {
+                entries.add(new FeedbackIndex.Entry(view.getInt(), string(view.getInt()), string(view.getInt()), view.getInt()));
+            }
+            Map<String, FeedbackIndex.Snippet> snippets = new HashMap<>();
+            for (int s = view.getInt(); s > 0; s--) {
+                String feedback = string(view.getInt());
+                snippets.put(feedback, new FeedbackIndex.Snippet(file, view.getInt(), view.getInt(), string(view.getInt())));
+            }
+            files.put(file, new FeedbackIndex.FileFeedback(entries, markers, snippets, modified, size));
+        }
+        return files;
+    }
+
+    /**
+     * Writes a store file, replacing the previous one at once.
+     *
+     * @param file      The store file.
+     * @param root      The graded folder.
+     * @param files     The feedback per file.
+     * @param aggregate The feedback per split point over all files.
+     * @param snippets  The snippet shown for each feedback text.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(File file, Path root, Map<Path, FeedbackIndex.FileFeedback> files,
+                      Map<Integer, TreeMap<String, LinkedHashMap<String, Integer>>> aggregate,
+                      Map<String, FeedbackIndex.Snippet> snippets) throws IOException {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        int rootId = intern(ids, root.toString());
+
+        ByteArrayOutputStream filesBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(filesBytes);
+        out.writeInt(files.size());
+        for (Map.Entry<Path, FeedbackIndex.FileFeedback> entry : files.entrySet()) {
+            FeedbackIndex.FileFeedback feedback = entry.getValue();
+            out.writeInt(intern(ids, root.relativize(entry.getKey()).toString()));
+            out.writeLong(feedback.modified);
+            out.writeLong(feedback.size);
+            out.writeInt(feedback.markers.size());
+            for (String marker : feedback.markers) {
+                out.writeInt(intern(ids, marker));
+            }
+            out.writeInt(feedback.entries.size());
+            for (FeedbackIndex.Entry e : feedback.entries) {
+                out.writeInt(e.splitID);
+                out.writeInt(intern(ids, e.grade));
+                out.writeInt(intern(ids, e.feedback));
+                out.writeInt(e.line);
+            }
+            out.writeInt(feedback.snippets.size());
+            for (Map.Entry<String, FeedbackIndex.Snippet> snippet : feedback.snippets.entrySet()) {
+                out.writeInt(intern(ids, snippet.getKey()));
+                out.writeInt(snippet.getValue().getStartLine());
+                out.writeInt(snippet.getValue().getEndLine());
+                out.writeInt(intern(ids, snippet.getValue().getText()));
+            }
+        }
+
+        ByteArrayOutputStream splitBytes = new ByteArrayOutputStream();
+        DataOutputStream splitOut = new DataOutputStream(splitBytes);
+        ByteArrayOutputStream splitsBytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(splitsBytes);
+        TreeMap<Integer, TreeMap<String, LinkedHashMap<String, Integer>>> splits = new TreeMap<>(aggregate);
+        out.writeInt(splits.size());
+        for (Map.Entry<Integer, TreeMap<String, LinkedHashMap<String, Integer>>> split : splits.entrySet()) {
+            out.writeInt(split.getKey());
+            out.writeInt(splitOut.size());
+            splitOut.writeInt(split.getValue().size());
+            for (Map.Entry<String, LinkedHashMap<String, Integer>> grade : split.getValue().entrySet()) {
+                splitOut.writeInt(intern(ids, grade.getKey()));
+                splitOut.writeInt(grade.getValue().size());
+                for (Map.Entry<String, Integer> feedback : grade.getValue().entrySet()) {
+                    splitOut.writeInt(intern(ids, feedback.getKey()));
+                    splitOut.writeInt(feedback.getValue());
+                }
+            }
+        }
+        splitBytes.writeTo(splitsBytes);
+
+        ByteArrayOutputStream snippetsBytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(snippetsBytes);
+        out.writeInt(snippets.size());
+        for (Map.Entry<String, FeedbackIndex.Snippet> snippet : new TreeMap<>(snippets).entrySet()) {
+            out.writeInt(intern(ids, snippet.getKey()));
+            out.writeInt(intern(ids, root.relativize(snippet.getValue().getFile()).toString()));
+            out.writeInt(snippet.getValue().getStartLine());
+            out.writeInt(snippet.getValue().getEndLine());
+            out.writeInt(intern(ids, snippet.getValue().getText()));
+        }
+
+        ByteArrayOutputStream stringsBytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(stringsBytes);
+        ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+        out.writeInt(ids.size());
+        out.writeInt(0);
+        for (String string : ids.keySet()) {
+            utf8.write(string.getBytes(StandardCharsets.UTF_8));
+            out.writeInt(utf8.size());
+        }
+        utf8.writeTo(stringsBytes);
+
+        ByteArrayOutputStream store = new ByteArrayOutputStream(HEADER_SIZE + stringsBytes.size() + filesBytes.size()
+                + splitsBytes.size() + snippetsBytes.size());
+        out = new DataOutputStream(store);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(rootId);
+        out.writeInt(HEADER_SIZE);
+        out.writeInt(HEADER_SIZE + stringsBytes.size());
+        out.writeInt(HEADER_SIZE + stringsBytes.size() + filesBytes.size());
+        out.writeInt(HEADER_SIZE + stringsBytes.size() + filesBytes.size() + splitsBytes.size());
+        stringsBytes.writeTo(store);
+        filesBytes.writeTo(store);
+        splitsBytes.writeTo(store);
+        snippetsBytes.writeTo(store);
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            Files.write(tmp.toPath(), store.toByteArray());
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static int intern(Map<String, Integer> ids, String string) {
+        Integer id = ids.get(string);
+        if (id == null) {
+            id = ids.size();
+            ids.put(string, id);
+        }
+        return id;
+    }
+}
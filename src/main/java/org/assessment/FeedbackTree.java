@@ -1,122 +1,156 @@
 import org.assessment.tool.JMultiLineToolTip;
 
 import javax.swing.*;
-import javax.swing.tree.DefaultMutableTreeNode;
 import java.awt.*;
-import java.io.IOException;
-import java.nio.file.Files;
+import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
 
 /**
  * Represents a FeedbackTree to build and display a JTree with feedback comments.
  */
 public class FeedbackTree extends JFrame {
 
-    private JTree commentsTree;
+    private static final int SUGGESTION_LIMIT = 50;
+
     private final String path;
+    private final FeedbackIndex feedbackIndex;
+    // whether the changes to the folder are applied to the index here, or by whoever shares it
+    private final boolean ownsIndex;
+    private FeedbackTreeModel treeModel;
     private Popup currentPopup = null;
 
     /**
-     * Constructs a FeedbackTree with the specified path.
+     * Constructs a FeedbackTree with the specified path. The feedback index saved for the folder is used if there is
+     * one; otherwise the feedback of every file in it is read once.
+     *
+     * @param path        The path to the folder containing feedback files.
+     * @param storeFolder The folder feedback indexes are saved in.
+     * @param revalidated Called on a background thread once files changed since the index was saved were read again.
+     */
+    public FeedbackTree(String path, File storeFolder, Runnable revalidated) {
+        super("Feedback Tree");
+
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setSize(400, 400);
+
+        this.path = path;
+        this.feedbackIndex = FeedbackIndex.open(Paths.get(path), storeFolder, revalidated);
+        this.ownsIndex = true;
+    }
+
+    /**
+     * Constructs a FeedbackTree on an index that is kept up to date elsewhere, such as by WorkspaceFeedback.
      *
-     * @param path The path to the folder containing feedback files.
+     * @param path          The path to the folder containing feedback files.
+     * @param feedbackIndex The index of the folder.
      */
-    public FeedbackTree(String path) {
+    public FeedbackTree(String path, FeedbackIndex feedbackIndex) {
         super("Feedback Tree");
 
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(400, 400);
 
         this.path = path;
+        this.feedbackIndex = feedbackIndex;
+        this.ownsIndex = false;
     }
 
     /**
-     * Builds a JTree model based on feedback files in the specified folder.
+     * Builds a tree model of the feedback given for a split point in the specified folder.
      *
      * @param splitID The split point identifier.
      * @param contentFilter Optional value to filter files by content. If null, all files are processed.
-     * @return The constructed JTree.
+     * @return The constructed tree model.
      */
-    public JTree buildTreeModel(int splitID, String contentFilter) {
-        String folderPath = path;
-        Map<String, DefaultMutableTreeNode> gradeNodes = new HashMap<>();
-
-        try {
-            Files.walk(Paths.get(folderPath))
-                    .filter(Files::isRegularFile)
-                    .filter(file -> {
-                        try {
-                            return contentFilter == null || fileContainsContent(file, contentFilter);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    })
-                    .forEach(file -> processFile(file, splitID, gradeNodes));
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        DefaultMutableTreeNode root = new DefaultMutableTreeNode("FEEDBACKS - Split Point " + splitID);
+    public FeedbackTreeModel buildTreeModel(int splitID, String contentFilter) {
+        treeModel = new FeedbackTreeModel(feedbackIndex, splitID, contentFilter, null);
+        return treeModel;
+    }
 
-        TreeMap<String, DefaultMutableTreeNode> sortedGradeNodes = new TreeMap<>(gradeNodes);
+    /**
+     * Builds a tree model of the feedback matching a search, grouped by grade. Grades are ordered by their best
+     * match and feedback by rank, so the most likely feedback is on top.
+     *
+     * @param query         The typed text.
+     * @param splitID       The split point identifier, used for ranking.
+     * @param contentFilter Optional value to filter files by content, kept for refreshing the model.
+     * @return The constructed tree model.
+     */
+    public FeedbackTreeModel buildSearchTreeModel(String query, int splitID, String contentFilter) {
+        treeModel = new FeedbackTreeModel(feedbackIndex, splitID, contentFilter, query);
+        return treeModel;
+    }
 
-        sortedGradeNodes.forEach((grade, feedbackNode) -> {
-            root.add(feedbackNode);
+    /**
+     * Builds a tree model of the feedback given in the other assignments of the workspace for code like the given
+     * reference code segment, grouped by grade with the best suggestion first.
+     *
+     * @param workspace   The feedback of all assignments.
+     * @param splitID     The split point identifier.
+     * @param segment     The lines of the reference code segment of the split point.
+     * @param refCodeName The name shared by the reference code files.
+     * @return The constructed tree model.
+     */
+    public FeedbackTreeModel buildWorkspaceTreeModel(WorkspaceFeedback workspace, int splitID, List<String> segment, String refCodeName) {
+        treeModel = new FeedbackTreeModel("ALL ASSIGNMENTS - Split Point " + splitID, () -> {
+            LinkedHashMap<String, List<String>> grades = new LinkedHashMap<>();
+            for (WorkspaceFeedback.Suggestion suggestion : workspace.suggest(Paths.get(path), segment, refCodeName, SUGGESTION_LIMIT)) {
+                grades.computeIfAbsent(suggestion.getGrade(), grade -> new ArrayList<>()).add(suggestion.getFeedback());
+            }
+            return grades;
         });
+        return treeModel;
+    }
 
-        commentsTree = new JTree(root);
+    /**
+     * Updates the feedback of a file that was saved, so that it shows up in the next tree built.
+     *
+     * @param file The saved file.
+     */
+    public void fileSaved(Path file) {
+        feedbackIndex.update(file);
+    }
 
-        return commentsTree;
+    /**
+     * Updates the feedback of files that were changed, created or deleted, possibly by another grader. A shared
+     * index is left to whoever keeps it up to date.
+     *
+     * @param paths The changed files or folders.
+     */
+    public void filesChanged(Collection<Path> paths) {
+        if (!ownsIndex) {
+            return;
+        }
+        for (Path path : paths) {
+            feedbackIndex.update(path);
+        }
     }
 
     /**
-     * Checks if a file contains the specified content.
+     * Applies the changes of the feedback index to the last tree model built, with events for just the nodes that
+     * were added or removed. Must be called on the event dispatch thread.
+     *
+     * @return True if the last tree model changed.
      */
-    private boolean fileContainsContent(Path file, String contentFilter) throws IOException {
-        return Files.lines(file)
-                .anyMatch(line -> line.toLowerCase().contains(contentFilter));
+    public boolean refreshTreeModel() {
+        return treeModel != null && treeModel.refresh();
     }
 
     /**
-     * Finds the first code snippet in the current folder that contains the specified feedback comment.
+     * Finds the first code snippet in the current folder that was given the specified feedback comment. The snippets
+     * are collected with the feedback, so this never reads a file.
      *
      * @param feedback The feedback comment.
      * @return The code snippet containing the feedback comment, or null if not found.
      */
     public String findCodeSnippet(String feedback) {
-        try {
-            List<Path> files = Files.walk(Paths.get(path))
-                    .filter(Files::isRegularFile)
-                    .collect(Collectors.toList());
-
-            for (Path file : files) {
-                List<String> lines = Files.readAllLines(file);
-                boolean foundFeedback = false;
-                StringBuilder snippetBuilder = new StringBuilder();
-
-                for (String line : lines) {
-                    if (foundFeedback && !line.contains("@grade")) {
-                        snippetBuilder.append(line).append(" \n ");
-                    } else if (!foundFeedback && line.contains(feedback)) {
-                        foundFeedback = true;
-                        snippetBuilder.append(line).append(" \n ");
-                    } else if (foundFeedback && line.contains("@grade")) {
-                        //snippetBuilder.append(line).append(" \n ");
-                        return snippetBuilder.toString();
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return null;
+        FeedbackIndex.Snippet snippet = feedbackIndex.getSnippet(feedback);
+        return snippet == null ? null : snippet.getText();
     }
 
     /**
@@ -151,60 +185,4 @@ public class FeedbackTree extends JFrame {
             currentPopup = null;
         }
     }
-
-    /**
-     * Processes a feedback file to extract grade and feedback information.
-     *
-     * @param file        The feedback file to process.
-     * @param splitID     The split point identifier.
-     * @param gradeNodes  A map containing grade nodes for building the JTree.
-     */
-    private void processFile(Path file, int splitID, Map<String, DefaultMutableTreeNode> gradeNodes) {
-        try {
-            List<String> lines = Files.readAllLines(file);
-            int commentCount = 0;
-
-            for (int i = 0; i < lines.size() - 1; i++) {
-                String line = lines.get(i).trim();
-
-                if (line.contains("@grade")) {
-                    commentCount++;
-
-                    if (commentCount == splitID) {
-                        String gradeComment = line.substring("@grade".length() + 2).trim();
-                        String feedbackComment = lines.get(i + 1).substring("@feedback".length() + 3).trim();
-
-                        if (!feedbackComment.trim().isEmpty()) {
-                            DefaultMutableTreeNode feedbackNode = new DefaultMutableTreeNode(feedbackComment);
-
-                            if (gradeNodes.containsKey(gradeComment)) {
-                                DefaultMutableTreeNode gradeNode = gradeNodes.get(gradeComment);
-
-                                // Check if a child node with the same content already exists
-                                boolean nodeExists = false;
-                                for (int j = 0; j < gradeNode.getChildCount(); j++) {
-                                    DefaultMutableTreeNode existingChild = (DefaultMutableTreeNode) gradeNode.getChildAt(j);
-                                    if (existingChild.getUserObject().equals(feedbackNode.getUserObject())) {
-                                        nodeExists = true;
-                                        break;
-                                    }
-                                }
-
-                                // If not, add the new feedback node
-                                if (!nodeExists) {
-                                    gradeNode.add(feedbackNode);
-                                }
-                            } else {
-                                DefaultMutableTreeNode defaultNode = new DefaultMutableTreeNode(gradeComment);
-                                gradeNodes.put(gradeComment, defaultNode);
-                                gradeNodes.get(gradeComment).add(feedbackNode);
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
 }
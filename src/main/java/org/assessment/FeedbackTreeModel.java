@@ -0,0 +1,242 @@
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A TreeModel of the feedback given for a split point, read from a FeedbackIndex or another source of feedback per
+ * grade: the root holds one node per grade and each grade node holds its feedback. The feedback nodes of a grade are
+ * only created when the tree first asks for them. When the source changes, refresh applies the difference as insert
+ * and remove events, so the tree keeps its layout and expansion instead of being rebuilt.
+ */
+public class FeedbackTreeModel implements TreeModel {
+
+    private static final int SEARCH_LIMIT = 50;
+
+    private final Supplier<LinkedHashMap<String, List<String>>> source;
+    private final DefaultMutableTreeNode root;
+    private final EventListenerList listeners = new EventListenerList();
+
+    /**
+     * A grade with the feedback it was given with; the feedback nodes are added on first use.
+     */
+    private static class GradeNode extends DefaultMutableTreeNode {
+        private static final long serialVersionUID = 1L;
+
+        private List<String> feedback;
+        private boolean materialized;
+
+        GradeNode(String grade, List<String> feedback) {
+            super(grade);
+            this.feedback = feedback;
+        }
+    }
+
+    /**
+     * Constructs a FeedbackTreeModel.
+     *
+     * @param index         The index the feedback is read from.
+     * @param splitID       The split point identifier.
+     * @param contentFilter Optional reference code variant name that files must mention, or null for all files.
+     * @param query         Optional search text; if given, only the best matching feedback is shown, best first.
+     */
+    public FeedbackTreeModel(FeedbackIndex index, int splitID, String contentFilter, String query) {
+        this(query == null ? "FEEDBACKS - Split Point " + splitID : "SEARCH \"" + query + "\" - Split Point " + splitID,
+                () -> read(index, splitID, contentFilter, query));
+    }
+
+    /**
+     * Constructs a FeedbackTreeModel of feedback from any source.
+     *
+     * @param title  The text of the root node.
+     * @param source Reads the feedback per grade, in the order it is shown.
+     */
+    public FeedbackTreeModel(String title, Supplier<LinkedHashMap<String, List<String>>> source) {
+        this.source = source;
+        this.root = new DefaultMutableTreeNode(title);
+        source.get().forEach((grade, feedback) -> root.add(new GradeNode(grade, feedback)));
+    }
+
+    /**
+     * Reads the grades and their feedback from the index, in the order they are shown.
+     */
+    private static LinkedHashMap<String, List<String>> read(FeedbackIndex index, int splitID, String contentFilter, String query) {
+        LinkedHashMap<String, List<String>> grades = new LinkedHashMap<>();
+        if (query == null) {
+            index.getFeedback(splitID, contentFilter).forEach((grade, feedback) -> grades.put(grade, new ArrayList<>(feedback.keySet())));
+        } else {
+            for (FeedbackSearch.Match match : index.search(query, splitID, contentFilter, SEARCH_LIMIT)) {
+                grades.computeIfAbsent(match.getGrade(), grade -> new ArrayList<>()).add(match.getFeedback());
+            }
+        }
+        return grades;
+    }
+
+    private static DefaultMutableTreeNode materialize(Object node) {
+        if (node instanceof GradeNode && !((GradeNode) node).materialized) {
+            GradeNode gradeNode = (GradeNode) node;
+            for (String feedback : gradeNode.feedback) {
+                gradeNode.add(new DefaultMutableTreeNode(feedback));
+            }
+            gradeNode.materialized = true;
+        }
+        return (DefaultMutableTreeNode) node;
+    }
+
+    /**
+     * Returns the number of feedback texts below a grade node without creating their nodes.
+     *
+     * @param node A node of this model.
+     * @return The number of feedback texts, or 0 if the node is no grade.
+     */
+    public int getFeedbackCount(Object node) {
+        return node instanceof GradeNode ? ((GradeNode) node).feedback.size() : 0;
+    }
+
+    /**
+     * Reads the feedback from the source again and fires events for the grades and feedback that were added or
+     * removed since.
+     *
+     * @return True if anything changed.
+     */
+    public boolean refresh() {
+        LinkedHashMap<String, List<String>> grades = source.get();
+        boolean changed = update(root, new ArrayList<>(grades.keySet()), grade -> new GradeNode(grade, grades.get(grade)));
+        for (int i = 0; i < root.getChildCount(); i++) {
+            GradeNode gradeNode = (GradeNode) root.getChildAt(i);
+            List<String> feedback = grades.get((String) gradeNode.getUserObject());
+            if (!feedback.equals(gradeNode.feedback)) {
+                gradeNode.feedback = feedback;
+                if (gradeNode.materialized) {
+                    update(gradeNode, feedback, DefaultMutableTreeNode::new);
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Brings the children of a node in line with the given keys: children that are gone are removed and new ones
+     * inserted where they belong. If the children that stay were reordered, the node is rebuilt instead.
+     */
+    private boolean update(DefaultMutableTreeNode parent, List<String> keys, Function<String, DefaultMutableTreeNode> create) {
+        TreePath path = new TreePath(parent.getPath());
+        Set<String> wanted = new HashSet<>(keys);
+        List<Integer> removedIndices = new ArrayList<>();
+        List<Object> removed = new ArrayList<>();
+        for (int i = 0; i < parent.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) parent.getChildAt(i);
+            if (!wanted.contains((String) child.getUserObject())) {
+                removedIndices.add(i);
+                removed.add(child);
+            }
+        }
+        for (int i = removedIndices.size() - 1; i >= 0; i--) {
+            parent.remove(removedIndices.get(i));
+        }
+        if (!removed.isEmpty()) {
+            fire(new TreeModelEvent(this, path, toArray(removedIndices), removed.toArray()), false);
+        }
+
+        Map<String, DefaultMutableTreeNode> kept = new LinkedHashMap<>();
+        for (int i = 0; i < parent.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) parent.getChildAt(i);
+            kept.put((String) child.getUserObject(), child);
+        }
+        List<String> keptOrder = new ArrayList<>();
+        for (String key : keys) {
+            if (kept.containsKey(key)) {
+                keptOrder.add(key);
+            }
+        }
+        if (!keptOrder.equals(new ArrayList<>(kept.keySet()))) {
+            parent.removeAllChildren();
+            for (String key : keys) {
+                DefaultMutableTreeNode child = kept.get(key);
+                parent.add(child == null ? create.apply(key) : child);
+            }
+            for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+                listener.treeStructureChanged(new TreeModelEvent(this, path));
+            }
+            return true;
+        }
+
+        List<Integer> insertedIndices = new ArrayList<>();
+        List<Object> inserted = new ArrayList<>();
+        for (int j = 0; j < keys.size(); j++) {
+            if (j >= parent.getChildCount() || !keys.get(j).equals(((DefaultMutableTreeNode) parent.getChildAt(j)).getUserObject())) {
+                DefaultMutableTreeNode child = create.apply(keys.get(j));
+                parent.insert(child, j);
+                insertedIndices.add(j);
+                inserted.add(child);
+            }
+        }
+        if (!inserted.isEmpty()) {
+            fire(new TreeModelEvent(this, path, toArray(insertedIndices), inserted.toArray()), true);
+        }
+        return !removed.isEmpty() || !inserted.isEmpty();
+    }
+
+    private static int[] toArray(List<Integer> indices) {
+        return indices.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void fire(TreeModelEvent event, boolean inserted) {
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            if (inserted) {
+                listener.treeNodesInserted(event);
+            } else {
+                listener.treeNodesRemoved(event);
+            }
+        }
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return materialize(parent).getChildAt(index);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return materialize(parent).getChildCount();
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return node != root && !(node instanceof GradeNode);
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // the feedback is read from the files and cannot be edited in the tree
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (!(parent instanceof DefaultMutableTreeNode) || !(child instanceof DefaultMutableTreeNode)) {
+            return -1;
+        }
+        return materialize(parent).getIndex((DefaultMutableTreeNode) child);
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener listener) {
+        listeners.add(TreeModelListener.class, listener);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener listener) {
+        listeners.remove(TreeModelListener.class, listener);
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches folders and their subfolders for changed files on a background thread. Events that arrive close together,
+ * such as the several events of a single save, are collected and reported as one set of paths.
+ */
+public class FolderWatcher {
+
+    private static final long QUIET_PERIOD = 200;
+    private static final long MAX_DELAY = 1000;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Queue<Path> pendingRoots = new ConcurrentLinkedQueue<>();
+    private final Set<String> ignoredNames;
+    private final Consumer<Set<Path>> listener;
+    private final Thread thread;
+
+    /**
+     * Constructs a FolderWatcher and starts its thread.
+     *
+     * @param listener     Called on the watcher thread with the changed files. A folder in the set means that its
+     *                     content may have changed in any way and has to be read again.
+     * @param ignoredNames Names of folders that are not watched.
+     * @throws IOException If the file system cannot be watched.
+     */
+    public FolderWatcher(Consumer<Set<Path>> listener, String... ignoredNames) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.ignoredNames = new HashSet<>(Arrays.asList(ignoredNames));
+        this.listener = listener;
+        this.thread = new Thread(this::run, "folder-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts watching a folder and all of its subfolders. The folders are registered on the watcher thread, so this
+     * returns at once.
+     *
+     * @param root The folder to watch.
+     */
+    public void watch(Path root) {
+        pendingRoots.add(root.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Stops watching and ends the watcher thread.
+     */
+    public void close() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Path root;
+                while ((root = pendingRoots.poll()) != null) {
+                    register(root);
+                }
+                WatchKey key = watchService.poll(500, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                Set<Path> changed = new LinkedHashSet<>();
+                collect(key, changed);
+                long deadline = System.currentTimeMillis() + MAX_DELAY;
+                long wait;
+                while ((wait = Math.min(QUIET_PERIOD, deadline - System.currentTimeMillis())) > 0
+                        && (key = watchService.poll(wait, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+                if (!changed.isEmpty()) {
+                    try {
+                        listener.accept(changed);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.add(directory);
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            if (ignoredNames.contains(child.getFileName().toString())) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                register(child);
+            }
+            changed.add(child);
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void register(Path root) {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                    if (!directory.equals(root) && ignoredNames.contains(directory.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    directories.put(key, directory);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The grades of every student file in the subfolders of the grading root, in the layout CSVExporter exports. A file
+ * is only read again when its modification time or size changed. Folder watcher events read changed files ahead of
+ * time, but every snapshot still checks all files, so grades written where the watcher cannot see them, such as on
+ * network shares, are not missed.
+ */
+public class GradeTable {
+
+    // coarsest modification time resolution of the file systems graded on (FAT)
+    private static final long MODIFIED_RESOLUTION = 2000;
+
+    private final Path root;
+    private final Set<String> ignoredFolders;
+    // subfolder name -> file name -> grades, in the order the folder lists its files
+    private final Map<String, Map<String, FileGrades>> folders = new HashMap<>();
+
+    /**
+     * The grades of one student file, with the modification time and size they were read at.
+     */
+    private static class FileGrades {
+        final long modified;
+        final long size;
+        final Map<String, Integer> scores;
+        // whether the file may have been written again within the same modification time
+        final boolean racy;
+
+        FileGrades(long modified, long size, Map<String, Integer> scores, long readAt) {
+            this.modified = modified;
+            this.size = size;
+            this.scores = scores;
+            this.racy = readAt - modified < MODIFIED_RESOLUTION;
+        }
+    }
+
+    /**
+     * Constructs a GradeTable.
+     *
+     * @param root           The grading root containing subfolders of student files.
+     * @param ignoredFolders Names of subfolders that hold no student files.
+     */
+    public GradeTable(Path root, String... ignoredFolders) {
+        this.root = root.toAbsolutePath().normalize();
+        this.ignoredFolders = new HashSet<>(Arrays.asList(ignoredFolders));
+    }
+
+    /**
+     * Returns a copy of the grades, reading the files that are new or changed since they were last read.
+     *
+     * @return A map with subfolder names as keys and a map of student IDs to their grades as values.
+     */
+    public synchronized Map<String, Map<String, Map<String, Integer>>> snapshot() {
+        File[] subfolders = root.toFile().listFiles(File::isDirectory);
+        Set<String> found = new HashSet<>();
+        if (subfolders != null) {
+            for (File subfolder : subfolders) {
+                if (!ignoredFolders.contains(subfolder.getName())) {
+                    found.add(subfolder.getName());
+                    refreshFolder(subfolder);
+                }
+            }
+        }
+        folders.keySet().retainAll(found);
+
+        Map<String, Map<String, Map<String, Integer>>> copy = new HashMap<>();
+        folders.forEach((folderName, files) -> {
+            // as in CSVExporter.processSubfolder, a later file with the same student ID wins
+            Map<String, Map<String, Integer>> studentCopy = new HashMap<>();
+            files.forEach((fileName, grades) -> {
+                if (grades.scores != null) {
+                    studentCopy.put(CSVExporter.getStudentId(fileName), new LinkedHashMap<>(grades.scores));
+                }
+            });
+            copy.put(folderName, studentCopy);
+        });
+        return copy;
+    }
+
+    /**
+     * Brings the grades of a subfolder in line with its files, reading only the files whose modification time or
+     * size changed.
+     */
+    private void refreshFolder(File subfolder) {
+        Map<String, FileGrades> known = folders.getOrDefault(subfolder.getName(), Collections.emptyMap());
+        Map<String, FileGrades> files = new LinkedHashMap<>();
+        File[] listed = subfolder.listFiles(File::isFile);
+        if (listed != null) {
+            for (File file : listed) {
+                files.put(file.getName(), read(file, known.get(file.getName())));
+            }
+        }
+        folders.put(subfolder.getName(), files);
+    }
+
+    /**
+     * Reads the grades of a file, or returns the known ones if the file did not change since. Files that could not
+     * be read, or were read too soon after being written to tell later writes apart, are always read again.
+     */
+    private static FileGrades read(File file, FileGrades known) {
+        long readAt = System.currentTimeMillis();
+        long modified = file.lastModified();
+        long size = file.length();
+        if (known != null && known.modified == modified && known.size == size && known.scores != null && !known.racy) {
+            return known;
+        }
+        return new FileGrades(modified, size, CSVExporter.readGrades(file), readAt);
+    }
+
+    /**
+     * Reads a changed student file, or a whole subfolder, again ahead of the next snapshot. Changes made before the
+     * first snapshot are ignored, since they are read anyway.
+     *
+     * @param path The file or subfolder that changed.
+     */
+    public synchronized void update(Path path) {
+        path = path.toAbsolutePath().normalize();
+        if (folders.isEmpty() || !path.startsWith(root) || path.equals(root)) {
+            return;
+        }
+        Path relative = root.relativize(path);
+        String folderName = relative.getName(0).toString();
+        if (ignoredFolders.contains(folderName)) {
+            return;
+        }
+        File subfolder = root.resolve(folderName).toFile();
+        if (!subfolder.isDirectory()) {
+            folders.remove(folderName);
+        } else if (relative.getNameCount() <= 2) {
+            refreshFolder(subfolder);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import org.assessment.codesplitter.LineCalculator;
+import org.assessment.codesplitter.MultiReferenceSearch;
+import org.assessment.codesplitter.ReferenceResult;
+import org.assessment.codesplitter.SearchLimits;
+import org.assessment.codesplitter.SplitCache;
+
+import javax.swing.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the split points of the open submission on a background thread, so that the event dispatch thread
+ * never runs a split search. The search is bounded in time and shows the best split points found when it runs out.
+ * When the folder holds several reference code variants, all of them are searched in parallel and the split points
+ * of the best matching one are shown.
+ * All public methods are meant to be called on the event dispatch thread.
+ */
+public class SegmentationService {
+
+    private static final int DEBOUNCE_DELAY = 400;
+    private static final SearchLimits SEARCH_LIMITS = new SearchLimits(2000, 0, 0);
+
+    private final Runnable onResult;
+    private final ExecutorService executor;
+    private final MultiReferenceSearch referenceSearch;
+    private final Timer debounceTimer;
+    private Future<?> runningJob;
+    private long generation;
+    private ArrayList<Integer> splitLines;
+    private ArrayList<ReferenceResult> referenceResults;
+    private String pendingText;
+    private List<File> pendingRefCodes;
+
+    /**
+     * Constructs a SegmentationService.
+     *
+     * @param splitCache The cache consulted before any split search is started.
+     * @param onResult   Called on the event dispatch thread whenever new split points are available.
+     */
+    public SegmentationService(SplitCache splitCache, Runnable onResult) {
+        this.onResult = onResult;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segmentation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService variantExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "segmentation-variant");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.referenceSearch = new MultiReferenceSearch(variantExecutor, LineCalculator::new, splitCache);
+        this.debounceTimer = new Timer(DEBOUNCE_DELAY, e -> requestNow(pendingText, pendingRefCodes));
+        this.debounceTimer.setRepeats(false);
+    }
+
+    /**
+     * Requests split points for the given content once no other request arrived for a short while.
+     *
+     * @param text     The submission content.
+     * @param refCodes The reference code variants to match against.
+     */
+    public void requestLater(String text, List<File> refCodes) {
+        pendingText = text;
+        pendingRefCodes = refCodes;
+        debounceTimer.restart();
+    }
+
+    /**
+     * Cancels any pending or running request and starts computing split points for the given content. The last
+     * split points stay available until the new ones replace them.
+     *
+     * @param text     The submission content.
+     * @param refCodes The reference code variants to match against.
+     */
+    public void requestNow(String text, List<File> refCodes) {
+        stop();
+        long job = generation;
+        runningJob = executor.submit(() -> {
+            ArrayList<ReferenceResult> result = null;
+            try {
+                result = referenceSearch.search(toLines(text), refCodes, SEARCH_LIMITS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+            }
+            ArrayList<ReferenceResult> results = result;
+            ReferenceResult best = results == null ? null : MultiReferenceSearch.best(results);
+            SwingUtilities.invokeLater(() -> {
+                if (job == generation) {
+                    splitLines = best == null ? null : best.getSplits();
+                    referenceResults = results;
+                    onResult.run();
+                }
+            });
+        });
+    }
+
+    /**
+     * Cancels any pending or running request and forgets the last split points and reference scores.
+     */
+    public void cancel() {
+        stop();
+        splitLines = null;
+        referenceResults = null;
+    }
+
+    /**
+     * Cancels any pending or running request.
+     */
+    private void stop() {
+        generation++;
+        debounceTimer.stop();
+        if (runningJob != null) {
+            runningJob.cancel(true);
+            runningJob = null;
+        }
+    }
+
+    /**
+     * Returns the split points of the last finished request.
+     *
+     * @return The split line indices, or null if none are available.
+     */
+    public ArrayList<Integer> getSplitLines() {
+        return splitLines;
+    }
+
+    /**
+     * Returns the score of every reference code variant for the last finished request, in the requested order.
+     *
+     * @return The results per reference code, or null if none are available.
+     */
+    public ArrayList<ReferenceResult> getReferenceResults() {
+        return referenceResults;
+    }
+
+    /**
+     * Splits text into lines the way a Scanner reads a file, without an empty line after the final newline.
+     */
+    private static ArrayList<String> toLines(String text) {
+        ArrayList<String> lines = new ArrayList<>();
+        String[] parts = text.split("\n", -1);
+        int count = parts[parts.length - 1].isEmpty() ? parts.length - 1 : parts.length;
+        for (int i = 0; i < count; i++) {
+            lines.add(parts[i]);
+        }
+        return lines;
+    }
+}
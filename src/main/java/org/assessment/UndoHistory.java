@@ -0,0 +1,198 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.DocumentFilter;
+import javax.swing.text.JTextComponent;
+import java.util.ArrayDeque;
+
+/**
+ * The undo history of a text component's document. It keeps the edits themselves, each one the offset, the text it
+ * removed and the text it inserted, instead of copies of the whole document. Typing and deleting in one place in
+ * quick succession is merged into one edit, up to the end of a line. The history holds at most a given number of
+ * characters; the oldest edits are dropped to stay below it.
+ * <p>
+ * The edits are seen through a DocumentFilter, as that is the only place the text of a removal can still be read.
+ * Undoing replaces the inserted text with the removed text, so only the edited lines are laid out again. A new
+ * document, as installed by JTextArea.read, starts with an empty history.
+ */
+public class UndoHistory extends DocumentFilter {
+
+    private static final long BURST_MILLIS = 1000;
+
+    private final JTextComponent component;
+    private final int maxCharacters;
+    private final ArrayDeque<Edit> edits = new ArrayDeque<>();
+    private int characters;
+    private long lastEdit;
+    private boolean undoing;
+
+    private static class Edit {
+        int offset;
+        String removed;
+        StringBuilder inserted;
+        // whether later typing or deleting may still be merged into this edit
+        boolean open;
+
+        Edit(int offset, String removed, String inserted) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = new StringBuilder(inserted);
+            this.open = inserted.indexOf('\n') == -1 && removed.indexOf('\n') == -1;
+        }
+
+        int size() {
+            return removed.length() + inserted.length();
+        }
+    }
+
+    /**
+     * Constructs an UndoHistory that records the edits of a text component's document, also when it is replaced.
+     *
+     * @param component     The text component.
+     * @param maxCharacters The number of removed and inserted characters the history may hold.
+     */
+    public UndoHistory(JTextComponent component, int maxCharacters) {
+        this.component = component;
+        this.maxCharacters = maxCharacters;
+        setDocument(null, component.getDocument());
+        component.addPropertyChangeListener("document", e -> setDocument((Document) e.getOldValue(), (Document) e.getNewValue()));
+    }
+
+    private void setDocument(Document oldDocument, Document newDocument) {
+        if (oldDocument instanceof AbstractDocument && ((AbstractDocument) oldDocument).getDocumentFilter() == this) {
+            ((AbstractDocument) oldDocument).setDocumentFilter(null);
+        }
+        if (newDocument instanceof AbstractDocument) {
+            ((AbstractDocument) newDocument).setDocumentFilter(this);
+        }
+        clear();
+    }
+
+    /**
+     * Forgets every edit, for example after a file was opened.
+     */
+    public void clear() {
+        edits.clear();
+        characters = 0;
+    }
+
+    /**
+     * @return True if there is an edit to undo.
+     */
+    public boolean canUndo() {
+        return !edits.isEmpty();
+    }
+
+    /**
+     * Reverts the last edit and puts the caret where it was made.
+     *
+     * @return True if an edit was reverted.
+     */
+    public boolean undo() {
+        Edit edit = edits.pollLast();
+        if (edit == null) {
+            return false;
+        }
+        characters -= edit.size();
+        undoing = true;
+        try {
+            ((AbstractDocument) component.getDocument()).replace(edit.offset, edit.inserted.length(), edit.removed, null);
+            component.setCaretPosition(edit.offset + edit.removed.length());
+        } catch (BadLocationException e) {
+            // the document no longer matches the history
+            e.printStackTrace();
+            clear();
+        } finally {
+            undoing = false;
+        }
+        return true;
+    }
+
+    @Override
+    public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) throws BadLocationException {
+        super.insertString(fb, offset, string, attr);
+        record(offset, "", string);
+    }
+
+    @Override
+    public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+        String removed = fb.getDocument().getText(offset, length);
+        super.remove(fb, offset, length);
+        record(offset, removed, "");
+    }
+
+    @Override
+    public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
+        String removed = fb.getDocument().getText(offset, length);
+        super.replace(fb, offset, length, text, attrs);
+        record(offset, removed, text == null ? "" : text);
+    }
+
+    private void record(int offset, String removed, String inserted) {
+        if (undoing || removed.isEmpty() && inserted.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Edit last = edits.peekLast();
+        boolean burst = last != null && last.open && now - lastEdit <= BURST_MILLIS;
+        lastEdit = now;
+        int before = burst ? last.size() : 0;
+        if (burst && merge(last, offset, removed, inserted)) {
+            characters += last.size() - before;
+            if (last.size() == 0) {
+                edits.pollLast();
+            }
+        } else {
+            Edit edit = new Edit(offset, removed, inserted);
+            edits.addLast(edit);
+            characters += edit.size();
+        }
+        while (characters > maxCharacters && !edits.isEmpty()) {
+            characters -= edits.pollFirst().size();
+        }
+    }
+
+    /**
+     * Merges an edit into the last one if it continues it: typing at the end of the inserted text, deleting the end
+     * of the inserted text, or deleting next to a deletion.
+     *
+     * @return True if the edit was merged.
+     */
+    private static boolean merge(Edit last, int offset, String removed, String inserted) {
+        if (removed.indexOf('\n') >= 0 || inserted.indexOf('\n') >= 0) {
+            last.open = false;
+        }
+        int insertedEnd = last.offset + last.inserted.length();
+        if (removed.isEmpty()) {
+            if (offset != insertedEnd) {
+                return false;
+            }
+            last.inserted.append(inserted);
+            return true;
+        }
+        if (!inserted.isEmpty()) {
+            return false;
+        }
+        if (offset >= last.offset && offset + removed.length() == insertedEnd) {
+            // backspace over what was just typed
+            last.inserted.setLength(offset - last.offset);
+            return true;
+        }
+        if (last.inserted.length() > 0) {
+            return false;
+        }
+        if (offset + removed.length() == last.offset) {
+            // backspace
+            last.removed = removed + last.removed;
+            last.offset = offset;
+            return true;
+        }
+        if (offset == last.offset) {
+            // delete
+            last.removed = last.removed + removed;
+            return true;
+        }
+        return false;
+    }
+}
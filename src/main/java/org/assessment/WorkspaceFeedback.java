@@ -0,0 +1,443 @@
+import org.assessment.codesplitter.LexedSource;
+import org.assessment.codesplitter.MultiReferenceSearch;
+import org.assessment.codesplitter.ReferenceCache;
+import org.assessment.codesplitter.ReferenceCode;
+import org.assessment.codesplitter.SourceLexer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The feedback of every assignment subfolder of the grading root, in the layout CSVExporter exports. Each subfolder
+ * has its own FeedbackIndex; they are opened in parallel, and a folder whose index is not ready yet is simply left
+ * out of suggestions until it is. Suggestions for a split point come from the split points of the other
+ * assignments whose reference code segment has the most tokens in common with the current one.
+ * <p>
+ * Finding the reference codes, parsing them and reading the other indexes all happen on the background threads.
+ * suggest only returns what was computed last and asks for new suggestions when that is out of date; the listener
+ * is told when they are ready.
+ */
+public class WorkspaceFeedback {
+
+    private static final double MIN_SIMILARITY = 0.5;
+
+    private final Path root;
+    private final File storeFolder;
+    private final Set<String> ignoredFolders;
+    private final ExecutorService executor;
+    private final Map<Path, CompletableFuture<FeedbackIndex>> folders = new ConcurrentHashMap<>();
+    // subfolders whose index is being opened or is open, so that it is opened only once
+    private final Set<Path> opening = ConcurrentHashMap.newKeySet();
+    // subfolder -> called once the changes since its index was saved were read
+    private final Map<Path, Runnable> revalidatedListeners = new ConcurrentHashMap<>();
+    // subfolder -> its reference code variants, for the reference code name last asked for
+    private final Map<Path, List<File>> references = new ConcurrentHashMap<>();
+    private volatile String refCodeName;
+    private final Runnable suggestionsChanged;
+    // counts the changes to the folders and indexes, so that suggestions computed before one are recomputed
+    private final AtomicLong version = new AtomicLong();
+    private final Object computeLock = new Object();
+    // the suggestions last asked for, and the last ones computed
+    private volatile Request requested;
+    private volatile Request computed;
+    // reference code -> token counts per segment, dropped with the parsed reference code
+    private static final Map<ReferenceCode, List<Map<String, Integer>>> segmentTokens = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Feedback of another assignment suggested for the current split point.
+     */
+    public static class Suggestion {
+        private final String grade;
+        private final String feedback;
+        private final double score;
+
+        Suggestion(String grade, String feedback, double score) {
+            this.grade = grade;
+            this.feedback = feedback;
+            this.score = score;
+        }
+
+        public String getGrade() {
+            return grade;
+        }
+
+        public String getFeedback() {
+            return feedback;
+        }
+
+        /**
+         * @return The number of times the feedback was given, each time weighted by the similarity of the segment.
+         */
+        public double getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * The arguments of a call to suggest, with the version of the folders they were asked for at, and the
+     * suggestions once they are computed.
+     */
+    private static class Request {
+        final Path currentFolder;
+        final List<String> segment;
+        final String refCodeName;
+        final int limit;
+        final long version;
+        List<Suggestion> suggestions = Collections.emptyList();
+
+        Request(Path currentFolder, List<String> segment, String refCodeName, int limit, long version) {
+            this.currentFolder = currentFolder;
+            this.segment = new ArrayList<>(segment);
+            this.refCodeName = refCodeName;
+            this.limit = limit;
+            this.version = version;
+        }
+
+        boolean sameQuery(Request other) {
+            return other != null && currentFolder.equals(other.currentFolder) && segment.equals(other.segment)
+                    && refCodeName.equals(other.refCodeName) && limit == other.limit;
+        }
+    }
+
+    /**
+     * Constructs a WorkspaceFeedback and starts opening the index of every subfolder in the background.
+     *
+     * @param root               The grading root containing one subfolder per assignment.
+     * @param storeFolder        The folder feedback indexes are saved in.
+     * @param suggestionsChanged Called on a background thread when suggestions that were asked for are ready, or
+     *                           may have changed because a folder changed; may be null.
+     * @param ignoredFolders     Names of subfolders that hold no student files.
+     */
+    public WorkspaceFeedback(Path root, File storeFolder, Runnable suggestionsChanged, String... ignoredFolders) {
+        this.root = root.toAbsolutePath().normalize();
+        this.storeFolder = storeFolder;
+        this.suggestionsChanged = suggestionsChanged;
+        this.ignoredFolders = new HashSet<>(Arrays.asList(ignoredFolders));
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "workspace-feedback");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scanFolders();
+    }
+
+    /**
+     * Opens the subfolders that are not known yet and forgets the ones that are gone.
+     */
+    private void scanFolders() {
+        File[] subfolders = root.toFile().listFiles(File::isDirectory);
+        Set<Path> found = new HashSet<>();
+        if (subfolders != null) {
+            for (File subfolder : subfolders) {
+                if (!ignoredFolders.contains(subfolder.getName())) {
+                    found.add(subfolder.toPath().toAbsolutePath().normalize());
+                }
+            }
+        }
+        folders.keySet().retainAll(found);
+        opening.retainAll(found);
+        references.keySet().retainAll(found);
+        for (Path folder : found) {
+            folders.computeIfAbsent(folder, key -> {
+                CompletableFuture<FeedbackIndex> index = new CompletableFuture<>();
+                index.thenRun(this::changed);
+                executor.execute(() -> open(key, index));
+                return index;
+            });
+        }
+        changed();
+    }
+
+    /**
+     * Opens the index of a subfolder, unless another thread already started to.
+     */
+    private void open(Path folder, CompletableFuture<FeedbackIndex> index) {
+        if (!opening.add(folder)) {
+            return;
+        }
+        try {
+            index.complete(FeedbackIndex.open(folder, storeFolder, () -> revalidated(folder)));
+        } catch (RuntimeException e) {
+            index.completeExceptionally(e);
+        }
+    }
+
+    private void revalidated(Path folder) {
+        changed();
+        Runnable listener = revalidatedListeners.get(folder);
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns the index of an assignment subfolder, opening it on the calling thread if that did not start yet, so
+     * that the subfolder is read and saved by one index only. Folders outside the grading root have no index here.
+     *
+     * @param folder      The assignment folder.
+     * @param revalidated Called on a background thread once files changed since the index was saved were read
+     *                    again; replaces the one given for the folder before.
+     * @return The index, or null if the folder is not a subfolder of the grading root or cannot be opened.
+     */
+    public FeedbackIndex index(Path folder, Runnable revalidated) {
+        folder = folder.toAbsolutePath().normalize();
+        if (!root.equals(folder.getParent()) || ignoredFolders.contains(folder.getFileName().toString())) {
+            return null;
+        }
+        revalidatedListeners.put(folder, revalidated);
+        CompletableFuture<FeedbackIndex> index = folders.get(folder);
+        if (index == null) {
+            scanFolders();
+            index = folders.get(folder);
+            if (index == null) {
+                return null;
+            }
+        }
+        open(folder, index);
+        try {
+            return index.join();
+        } catch (CompletionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Marks the suggestions computed so far as out of date and tells the listener, if suggestions were asked for.
+     */
+    private void changed() {
+        version.incrementAndGet();
+        if (requested != null && suggestionsChanged != null) {
+            suggestionsChanged.run();
+        }
+    }
+
+    /**
+     * Applies a changed file or folder, as reported by the folder watcher, to the index of its subfolder.
+     *
+     * @param path The file or folder that changed.
+     */
+    public void update(Path path) {
+        path = path.toAbsolutePath().normalize();
+        if (!path.startsWith(root)) {
+            return;
+        }
+        if (path.equals(root)) {
+            scanFolders();
+            return;
+        }
+        Path folder = root.resolve(root.relativize(path).getName(0));
+        if (ignoredFolders.contains(folder.getFileName().toString())) {
+            return;
+        }
+        references.remove(folder);
+        CompletableFuture<FeedbackIndex> index = folders.get(folder);
+        if (index == null || !folder.toFile().isDirectory()) {
+            scanFolders();
+        } else if (index.isDone() && !index.isCompletedExceptionally()) {
+            // at once, so that the feedback tree sharing the index sees the change when it refreshes
+            index.join().update(path);
+            changed();
+        } else {
+            Path changed = path;
+            index.thenAcceptAsync(feedbackIndex -> {
+                feedbackIndex.update(changed);
+                changed();
+            }, executor);
+        }
+    }
+
+    /**
+     * Suggests feedback given in the other assignments for code like a segment of the current reference code. This
+     * never waits: if the suggestions were not computed yet, or a folder changed since, they are computed in the
+     * background and the listener is told when they are ready.
+     *
+     * @param currentFolder The folder of the current assignment, which is left out.
+     * @param segment       The lines of the current reference code segment.
+     * @param refCodeName   The name shared by the reference code files.
+     * @param limit         The maximum number of suggestions.
+     * @return The suggestions last computed for these arguments, best first, or none if there are none yet.
+     */
+    public List<Suggestion> suggest(Path currentFolder, List<String> segment, String refCodeName, int limit) {
+        Request request = new Request(currentFolder.toAbsolutePath().normalize(), segment, refCodeName, limit, version.get());
+        Request last = computed;
+        List<Suggestion> suggestions = request.sameQuery(last) ? last.suggestions : Collections.<Suggestion>emptyList();
+        if (request.sameQuery(last) && last.version == request.version) {
+            return suggestions;
+        }
+        Request pending = requested;
+        if (!request.sameQuery(pending) || pending.version != request.version) {
+            requested = request;
+            executor.execute(() -> compute(request));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Computes the suggestions for a request, unless a newer one was made meanwhile, and tells the listener.
+     */
+    private void compute(Request request) {
+        synchronized (computeLock) {
+            if (requested != request) {
+                return;
+            }
+            request.suggestions = computeSuggestions(request.currentFolder, request.segment, request.refCodeName, request.limit);
+            computed = request;
+        }
+        if (suggestionsChanged != null) {
+            suggestionsChanged.run();
+        }
+    }
+
+    private List<Suggestion> computeSuggestions(Path current, List<String> segment, String refCodeName, int limit) {
+        if (!refCodeName.equals(this.refCodeName)) {
+            this.refCodeName = refCodeName;
+            references.clear();
+        }
+        Map<String, Integer> tokens = tokens(segment);
+        Map<String, Map<String, Double>> scores = new HashMap<>();
+        for (Map.Entry<Path, CompletableFuture<FeedbackIndex>> folder : folders.entrySet()) {
+            CompletableFuture<FeedbackIndex> index = folder.getValue();
+            if (folder.getKey().equals(current) || !index.isDone() || index.isCompletedExceptionally()) {
+                continue;
+            }
+            List<File> variants = references(folder.getKey(), refCodeName);
+            for (File variant : variants) {
+                List<Map<String, Integer>> referenceTokens = referenceTokens(variant);
+                for (int k = 0; k < referenceTokens.size(); k++) {
+                    double similarity = similarity(tokens, referenceTokens.get(k));
+                    if (similarity < MIN_SIMILARITY) {
+                        continue;
+                    }
+                    variantFeedback(index.join(), k + 1, variant, variants, refCodeName).forEach((grade, feedback) -> feedback.forEach((text, count) ->
+                            scores.computeIfAbsent(grade, g -> new HashMap<>()).merge(text, similarity * count, Double::sum)));
+                }
+            }
+        }
+        List<Suggestion> suggestions = new ArrayList<>();
+        scores.forEach((grade, feedback) -> feedback.forEach((text, score) -> suggestions.add(new Suggestion(grade, text, score))));
+        suggestions.sort(Comparator.comparingDouble(Suggestion::getScore).reversed()
+                .thenComparing(Suggestion::getFeedback)
+                .thenComparing(Suggestion::getGrade));
+        return suggestions.size() > limit ? new ArrayList<>(suggestions.subList(0, limit)) : suggestions;
+    }
+
+    /**
+     * Returns the reference code variants of a subfolder, or none if it has no reference code.
+     */
+    private List<File> references(Path folder, String refCodeName) {
+        return references.computeIfAbsent(folder, key -> MultiReferenceSearch.findReferences(key.toFile(), refCodeName));
+    }
+
+    /**
+     * Returns the feedback given for a split point of one reference code variant. Split points are numbered per
+     * variant, so only the files of that variant count: as in FeedbackIndex.matches, the files that mention its
+     * marker, such as "refcode2". The files of the variant named like the reference code itself are the ones that
+     * mention no other variant.
+     */
+    private static TreeMap<String, LinkedHashMap<String, Integer>> variantFeedback(FeedbackIndex index, int splitID, File variant, List<File> variants, String refCodeName) {
+        String marker = marker(variant);
+        if (!marker.equals(refCodeName.toLowerCase())) {
+            return index.getFeedback(splitID, marker);
+        }
+        TreeMap<String, LinkedHashMap<String, Integer>> feedback = index.getFeedback(splitID, null);
+        for (File other : variants) {
+            if (other.equals(variant)) {
+                continue;
+            }
+            index.getFeedback(splitID, marker(other)).forEach((grade, otherFeedback) -> {
+                LinkedHashMap<String, Integer> texts = feedback.get(grade);
+                if (texts != null) {
+                    otherFeedback.forEach((text, count) -> {
+                        if (texts.merge(text, -count, Integer::sum) <= 0) {
+                            texts.remove(text);
+                        }
+                    });
+                }
+            });
+        }
+        return feedback;
+    }
+
+    /**
+     * The marker that files of a reference code variant mention: its lower case file name without extension.
+     */
+    private static String marker(File variant) {
+        String name = variant.getName().toLowerCase();
+        int dot = name.indexOf('.');
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * Returns the token counts of every segment of a reference code, or none if it cannot be read.
+     */
+    private List<Map<String, Integer>> referenceTokens(File refCode) {
+        try {
+            ReferenceCode reference = ReferenceCache.get(refCode);
+            return segmentTokens.computeIfAbsent(reference, key -> {
+                List<Map<String, Integer>> segments = new ArrayList<>();
+                for (int k = 0; k < key.size(); k++) {
+                    segments.add(tokens(key.getSegment(k)));
+                }
+                return segments;
+            });
+        } catch (FileNotFoundException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Counts the tokens of some lines. String and character literals count as one token per kind, as in
+     * TokenCalculator.
+     */
+    static Map<String, Integer> tokens(List<String> lines) {
+        LexedSource source = SourceLexer.lex(lines);
+        Map<String, Integer> tokens = new HashMap<>();
+        for (int i = 0; i < source.tokenCount(); i++) {
+            String token;
+            switch (source.kind(i)) {
+                case LexedSource.STRING:
+                    token = "\"";
+                    break;
+                case LexedSource.CHARACTER:
+                    token = "'";
+                    break;
+                default:
+                    token = source.tokenText(i);
+            }
+            tokens.merge(token, 1, Integer::sum);
+        }
+        return tokens;
+    }
+
+    /**
+     * The Dice coefficient of two token multisets: twice the tokens they share over the tokens they have.
+     */
+    static double similarity(Map<String, Integer> a, Map<String, Integer> b) {
+        int total = 0;
+        for (int count : a.values()) {
+            total += count;
+        }
+        for (int count : b.values()) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        int shared = 0;
+        for (Map.Entry<String, Integer> token : a.entrySet()) {
+            Integer count = b.get(token.getKey());
+            if (count != null) {
+                shared += Math.min(count, token.getValue());
+            }
+        }
+        return 2.0 * shared / total;
+    }
+}
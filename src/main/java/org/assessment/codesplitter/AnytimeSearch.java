@@ -0,0 +1,225 @@
+package org.assessment.codesplitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Split search that can be stopped at any time and then returns the best split list found so far. With a segment
+ * scorer, a beam search over the segments gives a first split list quickly; unless the beam width is bounded, the
+ * dynamic program of CodeSplitter then finds the optimum in polynomial time. Without a scorer every split list is
+ * scored by a depth-first search. The search stops early when the deadline passes, the node budget is used up or
+ * the thread is interrupted; the interrupt flag is left set for the caller.
+ */
+public class AnytimeSearch {
+
+    private static final int SEED_BEAM_WIDTH = 8;
+    private static final int CHECK_INTERVAL = 1024;
+    // segment scores the memo table of the beam may hold, 8 MB
+    private static final int TABLE_SCORES = 1 << 20;
+
+    private final PointCalculator calculator;
+    private final ArrayList<String> codeLines;
+    private final int[] candidates;
+    private final int segments;
+    private final SearchLimits limits;
+    private final SegmentScorer scorer;
+    private final SegmentScoreTable table;
+    private final long deadline;
+    private long nodes;
+    private boolean stopped;
+    private int[] best;
+    private int bestLength;
+    private double bestPoint = Double.NEGATIVE_INFINITY;
+
+    public AnytimeSearch(PointCalculator calculator, ArrayList<String> codeLines, int[] candidates, SearchLimits limits) {
+        this.calculator = calculator;
+        this.codeLines = codeLines;
+        this.candidates = candidates;
+        this.segments = calculator.refCodeSize();
+        this.limits = limits;
+        this.scorer = segments > 0 ? calculator.segmentScorer(codeLines) : null;
+        this.table = scorer == null ? null : new SegmentScoreTable(scorer, candidates, codeLines.size(), segments, TABLE_SCORES);
+        this.deadline = limits.getTimeoutMillis() > 0 ? System.nanoTime() + limits.getTimeoutMillis() * 1000000 : Long.MAX_VALUE;
+        this.best = new int[Math.max(segments, 1)];
+    }
+
+    public SearchResult run() {
+        boolean optimal;
+        if (table == null) {
+            depthFirst(new int[Math.max(segments, 1)], 0);
+            optimal = !stopped;
+        } else if (limits.getBeamWidth() > 0) {
+            optimal = beam(limits.getBeamWidth()) && !stopped;
+        } else {
+            // the seed is what is returned if the dynamic program runs out of time
+            beam(SEED_BEAM_WIDTH);
+            if (!stopped) {
+                dynamic();
+            }
+            optimal = !stopped;
+        }
+        ArrayList<Integer> splits = new ArrayList<>();
+        for (int i = 0; i < bestLength; i++) {
+            splits.add(candidates[best[i]]);
+        }
+        double point = bestLength == 0 && segments > 0 ? Double.NEGATIVE_INFINITY : calculator.calculate(splits, codeLines);
+        return new SearchResult(splits, point, optimal, nodes);
+    }
+
+    private boolean shouldStop() {
+        nodes++;
+        if (stopped) {
+            return true;
+        }
+        if (limits.getMaxNodes() > 0 && nodes > limits.getMaxNodes()) {
+            stopped = true;
+        } else if (nodes % CHECK_INTERVAL == 0 && (System.nanoTime() > deadline || Thread.currentThread().isInterrupted())) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * Keeps a split list if it beats the best one, or ties with it and comes first in backtracking order.
+     */
+    private void offer(int[] splits, int length, double point) {
+        if (bestPoint < point || (bestPoint == point && comesFirst(splits, length))) {
+            best = Arrays.copyOf(splits, best.length);
+            bestLength = length;
+            bestPoint = point;
+        }
+    }
+
+    private boolean comesFirst(int[] splits, int length) {
+        for (int i = 0; i < Math.min(length, bestLength); i++) {
+            if (splits[i] != best[i]) {
+                return splits[i] < best[i];
+            }
+        }
+        return length < bestLength;
+    }
+
+    /**
+     * Beam search over the segments: layer k holds the best partial point for each candidate that may start segment
+     * k, cut down to the width entries with the highest optimistic point. Returns whether no layer had to be cut,
+     * in which case the result is exact.
+     */
+    private boolean beam(int width) {
+        int m = candidates.length;
+        int[][] layerCandidates = new int[segments][];
+        int[][] layerParents = new int[segments][];
+        double[][] layerPoints = new double[segments][];
+        boolean exact = true;
+        double[] points = new double[m];
+        int[] parents = new int[m];
+        Arrays.fill(points, 0);
+        Arrays.fill(parents, -1);
+        boolean[] reached = new boolean[m];
+        Arrays.fill(reached, true);
+        for (int k = 0; k < segments; k++) {
+            exact &= select(k, width, points, parents, reached, layerCandidates, layerParents, layerPoints);
+            Arrays.fill(points, Double.NEGATIVE_INFINITY);
+            Arrays.fill(reached, false);
+            for (int s = 0; s < layerCandidates[k].length; s++) {
+                if (shouldStop()) {
+                    return false;
+                }
+                int j = layerCandidates[k][s];
+                if (k == segments - 1 || j == m - 1) {
+                    double point = layerPoints[k][s] + table.score(j, m, k) + table.missingScore(k + 1);
+                    int[] splits = new int[segments];
+                    int length = trace(layerCandidates, layerParents, k, s, splits);
+                    offer(splits, length, point);
+                    continue;
+                }
+                for (int t = j + 1; t < m; t++) {
+                    double point = layerPoints[k][s] + table.score(j, t, k);
+                    if (!reached[t] || points[t] < point) {
+                        points[t] = point;
+                        parents[t] = s;
+                        reached[t] = true;
+                    }
+                }
+            }
+        }
+        return exact;
+    }
+
+    private boolean select(int k, int width, double[] points, int[] parents, boolean[] reached, int[][] layerCandidates, int[][] layerParents, double[][] layerPoints) {
+        int count = 0;
+        for (boolean r : reached) {
+            if (r) {
+                count++;
+            }
+        }
+        Integer[] order = new Integer[count];
+        int n = 0;
+        for (int t = 0; t < candidates.length; t++) {
+            if (reached[t]) {
+                order[n++] = t;
+            }
+        }
+        if (count > width) {
+            Arrays.sort(order, (a, b) -> Double.compare(points[b] + table.bound(b, k), points[a] + table.bound(a, k)));
+            order = Arrays.copyOf(order, width);
+            Arrays.sort(order);
+        }
+        layerCandidates[k] = new int[order.length];
+        layerParents[k] = new int[order.length];
+        layerPoints[k] = new double[order.length];
+        for (int s = 0; s < order.length; s++) {
+            layerCandidates[k][s] = order[s];
+            layerParents[k][s] = parents[order[s]];
+            layerPoints[k][s] = points[order[s]];
+        }
+        return count <= width;
+    }
+
+    private int trace(int[][] layerCandidates, int[][] layerParents, int k, int s, int[] splits) {
+        for (int layer = k; layer >= 0; layer--) {
+            splits[layer] = layerCandidates[layer][s];
+            s = layerParents[layer][s];
+        }
+        return k + 1;
+    }
+
+    /**
+     * The dynamic program of CodeSplitter.dynamic. It reads every segment score once, so it asks the scorer
+     * directly instead of filling the memo table. The best split list is only replaced if the program runs to the
+     * end.
+     */
+    private void dynamic() {
+        int[] splits = CodeSplitter.dynamic(scorer, segments, candidates, codeLines.size(), this::shouldStop);
+        if (splits == null || splits.length == 0) {
+            return;
+        }
+        best = Arrays.copyOf(splits, best.length);
+        bestLength = splits.length;
+    }
+
+    /**
+     * Backtracking over the candidates in the order of CodeSplitter.backtrack, for calculators without a segment
+     * scorer: every complete split list is scored with calculate.
+     */
+    private void depthFirst(int[] splits, int depth) {
+        if (shouldStop()) {
+            return;
+        }
+        int last = depth == 0 ? -1 : splits[depth - 1];
+        if (depth > 0 && (last == candidates.length - 1 || depth == segments)) {
+            ArrayList<Integer> list = new ArrayList<>();
+            for (int i = 0; i < depth; i++) {
+                list.add(candidates[splits[i]]);
+            }
+            offer(splits, depth, calculator.calculate(list, codeLines));
+            return;
+        }
+        if (depth == 0 && segments == 0) {
+            return;
+        }
+        for (int candidate = last + 1; candidate < candidates.length && !stopped; candidate++) {
+            splits[depth] = candidate;
+            depthFirst(splits, depth + 1);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.assessment.codesplitter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchSplitter {
+
+    /**
+     * Told about every file that was split. It is called on the worker threads of the pool, possibly by several of
+     * them at once, so it must be thread-safe and hand anything meant for the GUI over to the event dispatch thread.
+     */
+    public interface ProgressListener {
+        void fileDone(SplitResult result, int done, int total);
+    }
+
+    private final PointCalculator calculator;
+    private final SearchStrategy strategy;
+    private final ForkJoinPool pool;
+    // the stop flags of the batches that are running
+    private final Set<AtomicBoolean> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    public BatchSplitter(PointCalculator calculator, SearchStrategy strategy) {
+        this(calculator, strategy, ForkJoinPool.commonPool());
+    }
+
+    public BatchSplitter(PointCalculator calculator, SearchStrategy strategy, ForkJoinPool pool) {
+        this.calculator = calculator;
+        this.strategy = strategy;
+        this.pool = pool;
+    }
+
+    /**
+     * Cancels the batches that are running. Later calls to split run normally.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (AtomicBoolean stopped : running) {
+            stopped.set(true);
+        }
+    }
+
+    /**
+     * Whether the last batch started was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Splits every submission of the folder in parallel. Results are keyed by file name; files that were not
+     * reached because the batch was cancelled are missing from the result. Interrupting the calling thread cancels
+     * this batch as well: the workers start no new files, the files in progress are finished, and split returns
+     * with the interrupt flag set again.
+     */
+    public Map<String, SplitResult> split(String folderName, ProgressListener listener) throws FileNotFoundException {
+        File folder = new File(folderName);
+        File[] listOfFiles = folder.listFiles();
+        if (listOfFiles == null) {
+            throw new FileNotFoundException(folderName);
+        }
+        ArrayList<File> files = new ArrayList<>();
+        for (File file : listOfFiles) {
+            if (file.isFile() && !file.getName().equals("RefCode.java")) {
+                files.add(file);
+            }
+        }
+        Map<String, SplitResult> results = new ConcurrentSkipListMap<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+        cancelled = false;
+        running.add(stopped);
+        SplitTask task = new SplitTask(files, 0, files.size(), results, new AtomicInteger(), listener, stopped);
+        // pool.invoke cannot be interrupted, so wait on the submitted task instead
+        pool.submit(task);
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            task.quietlyJoin();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // rethrow what pool.invoke would have thrown
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            running.remove(stopped);
+        }
+        return new TreeMap<>(results);
+    }
+
+    private SplitResult splitFile(File file) {
+        long start = System.nanoTime();
+        try {
+            Pair<ArrayList<Integer>, Double> bestPair = CodeSplitter.findBestSplits(CodeSplitter.readLines(file), calculator, strategy);
+            return new SplitResult(file.getName(), bestPair.getKey(), bestPair.getValue(), (System.nanoTime() - start) / 1000000, null);
+        } catch (Exception e) {
+            return new SplitResult(file.getName(), null, Double.NaN, (System.nanoTime() - start) / 1000000, e);
+        }
+    }
+
+    private class SplitTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<File> files;
+        private final int from;
+        private final int to;
+        private final Map<String, SplitResult> results;
+        private final AtomicInteger done;
+        private final ProgressListener listener;
+        // set when the batch was cancelled or the thread that started it was interrupted
+        private final AtomicBoolean stopped;
+
+        SplitTask(ArrayList<File> files, int from, int to, Map<String, SplitResult> results, AtomicInteger done, ProgressListener listener, AtomicBoolean stopped) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.results = results;
+            this.done = done;
+            this.listener = listener;
+            this.stopped = stopped;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SplitTask(files, from, middle, results, done, listener, stopped),
+                        new SplitTask(files, middle, to, results, done, listener, stopped));
+                return;
+            }
+            if (from == to || stopped.get() || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            SplitResult result = splitFile(files.get(from));
+            results.put(result.getFileName(), result);
+            int count = done.incrementAndGet();
+            if (listener != null) {
+                listener.fileDone(result, count, files.size());
+            }
+        }
+    }
+}
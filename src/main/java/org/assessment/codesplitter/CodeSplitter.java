@@ -3,9 +3,11 @@ package org.assessment.codesplitter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.function.BooleanSupplier;
 
 public class CodeSplitter {
 
@@ -38,24 +40,163 @@ public class CodeSplitter {
         return pair;
     }
 
+    /**
+     * Shortest-path formulation of backtrack: best[k][j] is the best point of the remaining code when the k-th
+     * split is placed on the j-th candidate. Ties are broken towards the smaller candidate, so the result is the
+     * same split list the backtracking search finds first.
+     */
+    private static Pair<ArrayList<Integer>, Double> dynamic(SegmentScorer scorer, PointCalculator calculator, int[] candidates, ArrayList<String> codeLines) {
+        ArrayList<Integer> splits = new ArrayList<>();
+        for (int index : dynamic(scorer, calculator.refCodeSize(), candidates, codeLines.size(), () -> false)) {
+            splits.add(candidates[index]);
+        }
+        return new Pair<>(splits, calculator.calculate(splits, codeLines));
+    }
+
+    /**
+     * The dynamic program behind dynamic, returning the indices of the split candidates, or null if stop returned
+     * true. Stop is asked once per segment score, so it can end the search at any time.
+     */
+    static int[] dynamic(SegmentScorer scorer, int segments, int[] candidates, int fileSize, BooleanSupplier stop) {
+        if (candidates.length == 0) {
+            return new int[0];
+        }
+        double[][] best = new double[segments][candidates.length];
+        int[][] next = new int[segments][candidates.length];
+        for (int k = segments - 1; k >= 0; k--) {
+            for (int j = candidates.length - 1; j >= 0; j--) {
+                if (k == segments - 1 || j == candidates.length - 1) {
+                    best[k][j] = scorer.score(candidates[j], fileSize, k) + scorer.missingScore(k + 1);
+                    next[k][j] = -1;
+                } else {
+                    best[k][j] = Double.NEGATIVE_INFINITY;
+                    for (int t = j + 1; t < candidates.length; t++) {
+                        if (stop.getAsBoolean()) {
+                            return null;
+                        }
+                        double point = scorer.score(candidates[j], candidates[t], k) + best[k + 1][t];
+                        if (best[k][j] < point) {
+                            best[k][j] = point;
+                            next[k][j] = t;
+                        }
+                    }
+                }
+            }
+        }
+        int j = 0;
+        for (int t = 1; t < candidates.length; t++) {
+            if (best[0][j] < best[0][t]) {
+                j = t;
+            }
+        }
+        int[] splits = new int[segments];
+        int length = 0;
+        for (int k = 0; j != -1; k++) {
+            splits[length++] = j;
+            j = next[k][j];
+        }
+        return Arrays.copyOf(splits, length);
+    }
+
+    /**
+     * Same search order as backtrack, but partial split lists are scored segment by segment from a memo table and
+     * a branch is cut as soon as its point plus the bound of the remaining lines cannot beat the best split list.
+     */
+    private static double branchAndBound(int[] splits, int depth, double point, double bestPoint, int[] best, SegmentScoreTable table, int candidates, int segments) {
+        int last = splits[depth - 1];
+        if (last == candidates - 1 || depth == segments) {
+            double total = point + table.score(last, candidates, depth - 1) + table.missingScore(depth);
+            if (bestPoint < total) {
+                System.arraycopy(splits, 0, best, 0, depth);
+                Arrays.fill(best, depth, best.length, -1);
+                return total;
+            }
+            return bestPoint;
+        }
+        for (int candidate = last + 1; candidate < candidates; candidate++) {
+            double next = point + table.score(last, candidate, depth - 1);
+            if (next + table.bound(candidate, depth) < bestPoint) {
+                continue;
+            }
+            splits[depth] = candidate;
+            bestPoint = branchAndBound(splits, depth + 1, next, bestPoint, best, table, candidates, segments);
+        }
+        return bestPoint;
+    }
+
+    private static Pair<ArrayList<Integer>, Double> branchAndBound(SegmentScorer scorer, PointCalculator calculator, int[] candidates, ArrayList<String> codeLines) {
+        int segments = calculator.refCodeSize();
+        SegmentScoreTable table = new SegmentScoreTable(scorer, candidates, codeLines.size(), segments);
+        int[] splits = new int[segments];
+        int[] best = new int[segments];
+        double bestPoint = Double.NEGATIVE_INFINITY;
+        for (int candidate = 0; candidate < candidates.length; candidate++) {
+            if (table.bound(candidate, 0) < bestPoint) {
+                continue;
+            }
+            splits[0] = candidate;
+            bestPoint = branchAndBound(splits, 1, 0, bestPoint, best, table, candidates.length, segments);
+        }
+        ArrayList<Integer> bestSplits = new ArrayList<>();
+        for (int i = 0; i < segments && best[i] != -1; i++) {
+            bestSplits.add(candidates[best[i]]);
+        }
+        return new Pair<>(bestSplits, calculator.calculate(bestSplits, codeLines));
+    }
+
+    public static Pair<ArrayList<Integer>, Double> findBestSplits(ArrayList<String> codeLines, PointCalculator calculator, SearchStrategy strategy) throws CloneNotSupportedException, BracesNotMatchException {
+        int[] points = Splitter.splitPoints(codeLines);
+        if (strategy != SearchStrategy.BACKTRACK && calculator.refCodeSize() > 0) {
+            SegmentScorer scorer = calculator.segmentScorer(codeLines);
+            if (scorer != null) {
+                int[] candidates = Arrays.stream(points).distinct().toArray();
+                if (strategy == SearchStrategy.BRANCH_AND_BOUND) {
+                    return branchAndBound(scorer, calculator, candidates, codeLines);
+                }
+                return dynamic(scorer, calculator, candidates, codeLines);
+            }
+        }
+        ArrayList<Integer> possibilities = new ArrayList<>(points.length);
+        for (int point : points) {
+            possibilities.add(point);
+        }
+        HashMap<Integer, Integer> map = new HashMap<>();
+        for (int j = 0; j < possibilities.size(); j++) {
+            map.put(possibilities.get(j), j);
+        }
+        return backtrack(new ArrayList<>(), calculator, possibilities, codeLines, map);
+    }
+
+    /**
+     * Searches within the given limits and returns the best split list found, flagged as optimal only if the
+     * search was not cut short.
+     */
+    public static SearchResult findBestSplits(ArrayList<String> codeLines, PointCalculator calculator, SearchLimits limits) throws BracesNotMatchException {
+        int[] candidates = Arrays.stream(Splitter.splitPoints(codeLines)).distinct().toArray();
+        return new AnytimeSearch(calculator, codeLines, candidates, limits).run();
+    }
+
+    static ArrayList<String> readLines(File file) throws FileNotFoundException {
+        ArrayList<String> codeLines = new ArrayList<>();
+        Scanner source = new Scanner(file);
+        while (source.hasNext()) {
+            codeLines.add(source.nextLine());
+        }
+        source.close();
+        return codeLines;
+    }
+
     public static ArrayList<ArrayList<Integer>> calculateBestSplits(String folderName, PointCalculator calculator) throws FileNotFoundException, CloneNotSupportedException, BracesNotMatchException {
+        return calculateBestSplits(folderName, calculator, SearchStrategy.BACKTRACK);
+    }
+
+    public static ArrayList<ArrayList<Integer>> calculateBestSplits(String folderName, PointCalculator calculator, SearchStrategy strategy) throws FileNotFoundException, CloneNotSupportedException, BracesNotMatchException {
         File folder = new File(folderName);
         File[] listOfFiles = folder.listFiles();
         ArrayList<ArrayList<Integer>> splitLines = new ArrayList<>();
         for (int i = 0; i < Objects.requireNonNull(listOfFiles).length; i++) {
             if (listOfFiles[i].isFile() && !listOfFiles[i].getName().equals("RefCode.java")) {
-                ArrayList<String> codeLines = new ArrayList<>();
-                Scanner source = new Scanner(listOfFiles[i]);
-                while (source.hasNext()) {
-                    codeLines.add(source.nextLine());
-                }
-                source.close();
-                ArrayList<Integer> possibilities = Splitter.split(codeLines);
-                HashMap<Integer, Integer> map = new HashMap<>();
-                for (int j = 0; j < possibilities.size(); j++) {
-                    map.put(possibilities.get(j), j);
-                }
-                Pair<ArrayList<Integer>, Double> bestPair = backtrack(new ArrayList<>(), calculator, possibilities, codeLines, map);
+                Pair<ArrayList<Integer>, Double> bestPair = findBestSplits(readLines(listOfFiles[i]), calculator, strategy);
                 splitLines.add(bestPair.getKey());
                 //System.out.println(listOfFiles[i].getName() + " is done with " + bestPair.getValue() + " accuracy.");
             }
@@ -64,19 +205,12 @@ public class CodeSplitter {
     }
 
     public static ArrayList<ArrayList<Integer>> calculateBestSplitsforFile(File fileName, PointCalculator calculator) throws FileNotFoundException, CloneNotSupportedException, BracesNotMatchException {
-        ArrayList<String> codeLines = new ArrayList<>();
-        Scanner source = new Scanner(fileName);
+        return calculateBestSplitsforFile(fileName, calculator, SearchStrategy.BACKTRACK);
+    }
+
+    public static ArrayList<ArrayList<Integer>> calculateBestSplitsforFile(File fileName, PointCalculator calculator, SearchStrategy strategy) throws FileNotFoundException, CloneNotSupportedException, BracesNotMatchException {
         ArrayList<ArrayList<Integer>> splitLines = new ArrayList<>();
-        while (source.hasNext()) {
-            codeLines.add(source.nextLine());
-        }
-        source.close();
-        ArrayList<Integer> possibilities = Splitter.split(codeLines);
-        HashMap<Integer, Integer> map = new HashMap<>();
-        for (int j = 0; j < possibilities.size(); j++) {
-            map.put(possibilities.get(j), j);
-        }
-        Pair<ArrayList<Integer>, Double> bestPair = backtrack(new ArrayList<>(), calculator, possibilities, codeLines, map);
+        Pair<ArrayList<Integer>, Double> bestPair = findBestSplits(readLines(fileName), calculator, strategy);
         splitLines.add(bestPair.getKey());
         //System.out.println(listOfFiles[i].getName() + " is done with " + bestPair.getValue() + " accuracy.");
         return splitLines;
@@ -10,8 +10,17 @@ public class DummyCalculator extends PointCalculator {
         super(refCode);
     }
 
+    public DummyCalculator(ReferenceCode reference) {
+        super(reference);
+    }
+
     @Override
     public double calculate(ArrayList<Integer> splits, ArrayList<String> file) {
         return Math.random();
     }
+
+    @Override
+    public String configuration() {
+        return null;
+    }
 }
@@ -0,0 +1,98 @@
+package org.assessment.codesplitter;
+
+/**
+ * A source file tokenized once by SourceLexer. Comments produce no tokens and string or character literals are
+ * single tokens, so braces and keywords inside them never show up in the line flags.
+ */
+public final class LexedSource {
+
+    public static final byte IDENTIFIER = 0;
+    public static final byte NUMBER = 1;
+    public static final byte STRING = 2;
+    public static final byte CHARACTER = 3;
+    public static final byte SYMBOL = 4;
+
+    public static final int OPEN_BRACE = 1;
+    public static final int CLOSE_BRACE = 1 << 1;
+    public static final int BRACE_ONLY = 1 << 2;
+    public static final int IF = 1 << 3;
+    public static final int WHILE = 1 << 4;
+    public static final int FOR = 1 << 5;
+    public static final int CODE = 1 << 6;
+    public static final int EMPTY = 1 << 7;
+
+    private final String text;
+    private final int[] lineFlags;
+    private final int[] lineStarts;
+    private final int[] lineTokens;
+    private final byte[] kinds;
+    private final int[] starts;
+    private final int[] ends;
+    private final int tokenCount;
+
+    LexedSource(String text, int[] lineFlags, int[] lineStarts, int[] lineTokens, byte[] kinds, int[] starts, int[] ends, int tokenCount) {
+        this.text = text;
+        this.lineFlags = lineFlags;
+        this.lineStarts = lineStarts;
+        this.lineTokens = lineTokens;
+        this.kinds = kinds;
+        this.starts = starts;
+        this.ends = ends;
+        this.tokenCount = tokenCount;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int lineCount() {
+        return lineFlags.length;
+    }
+
+    public int lineFlags(int line) {
+        return lineFlags[line];
+    }
+
+    public boolean has(int line, int flag) {
+        return (lineFlags[line] & flag) != 0;
+    }
+
+    public int lineStart(int line) {
+        return lineStarts[line];
+    }
+
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Index of the first token on the line; the tokens of the line end at firstToken(line + 1).
+     */
+    public int firstToken(int line) {
+        return lineTokens[line];
+    }
+
+    public byte kind(int token) {
+        return kinds[token];
+    }
+
+    public int start(int token) {
+        return starts[token];
+    }
+
+    public int end(int token) {
+        return ends[token];
+    }
+
+    public char symbol(int token) {
+        return kinds[token] == SYMBOL ? text.charAt(starts[token]) : 0;
+    }
+
+    public boolean is(int token, String value) {
+        return ends[token] - starts[token] == value.length() && text.regionMatches(starts[token], value, 0, value.length());
+    }
+
+    public String tokenText(int token) {
+        return text.substring(starts[token], ends[token]);
+    }
+}
@@ -10,16 +10,45 @@ public class LineCalculator extends PointCalculator {
         super(refCode);
     }
 
+    public LineCalculator(ReferenceCode reference) {
+        super(reference);
+    }
+
     @Override
     public double calculate(ArrayList<Integer> splits, ArrayList<String> file) {
         double total = 0;
         for (int i = 0; i < splits.size() - 1; i++) {
-            total -= Math.abs((splits.get(i + 1) - splits.get(i)) - refCodeList.get(i).size());
+            total -= Math.abs((splits.get(i + 1) - splits.get(i)) - reference.segmentSize(i));
         }
-        total -= Math.abs((file.size() - splits.get(splits.size() - 1)) - refCodeList.get(splits.size() - 1).size());
-        for (int i = splits.size(); i < refCodeList.size(); i++) {
-            total -= refCodeList.get(i).size();
+        total -= Math.abs((file.size() - splits.get(splits.size() - 1)) - reference.segmentSize(splits.size() - 1));
+        for (int i = splits.size(); i < reference.size(); i++) {
+            total -= reference.segmentSize(i);
         }
         return total;
     }
+
+    @Override
+    public SegmentScorer segmentScorer(ArrayList<String> file) {
+        return new SegmentScorer() {
+            @Override
+            public double score(int start, int end, int segment) {
+                return -Math.abs((end - start) - reference.segmentSize(segment));
+            }
+
+            @Override
+            public double missingScore(int fromSegment) {
+                double total = 0;
+                for (int i = fromSegment; i < reference.size(); i++) {
+                    total -= reference.segmentSize(i);
+                }
+                return total;
+            }
+
+            @Override
+            public double bound(int start, int segment) {
+                // Every line and every reference line has to be paid for once: |R - S| <= sum of the penalties.
+                return -Math.abs((file.size() - start) + missingScore(segment));
+            }
+        };
+    }
 }
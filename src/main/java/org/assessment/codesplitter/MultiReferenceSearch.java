@@ -0,0 +1,105 @@
+package org.assessment.codesplitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a submission against every variant of a reference code (RefCode, RefCode2, ...) at the same time, so
+ * that the best matching variant can be chosen without searching the variants one after another.
+ */
+public class MultiReferenceSearch {
+
+    public interface CalculatorFactory {
+        PointCalculator create(ReferenceCode reference);
+    }
+
+    private final ExecutorService executor;
+    private final CalculatorFactory factory;
+    private final SplitCache cache;
+
+    /**
+     * A null cache searches every variant from scratch.
+     */
+    public MultiReferenceSearch(ExecutorService executor, CalculatorFactory factory, SplitCache cache) {
+        this.executor = executor;
+        this.factory = factory;
+        this.cache = cache;
+    }
+
+    /**
+     * Reference code files of the folder whose name contains refCodeName, sorted by name.
+     */
+    public static ArrayList<File> findReferences(File folder, String refCodeName) {
+        ArrayList<File> references = new ArrayList<>();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            for (File file : files) {
+                if (file.isFile() && file.getName().contains(refCodeName)) {
+                    references.add(file);
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Searches the splits for every reference code in parallel and returns one result per reference, in the
+     * given order. If the calling thread is interrupted, the searches still running are cancelled.
+     */
+    public ArrayList<ReferenceResult> search(ArrayList<String> codeLines, List<File> refCodes, SearchLimits limits) throws IOException, BracesNotMatchException, InterruptedException {
+        // fail on unmatched braces once instead of once per variant
+        Splitter.splitPoints(codeLines);
+        ArrayList<Callable<ReferenceResult>> tasks = new ArrayList<>();
+        for (File refCode : refCodes) {
+            tasks.add(() -> {
+                ReferenceCode reference = ReferenceCache.get(refCode);
+                PointCalculator calculator = factory.create(reference);
+                SearchResult result = cache == null
+                        ? CodeSplitter.findBestSplits(codeLines, calculator, limits)
+                        : cache.calculateBestSplits(codeLines, refCode, calculator, limits);
+                return new ReferenceResult(refCode, reference.size(), reference.preambleSize(), result);
+            });
+        }
+        ArrayList<ReferenceResult> results = new ArrayList<>();
+        for (Future<ReferenceResult> future : executor.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof BracesNotMatchException) {
+                    throw (BracesNotMatchException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The result with the highest variant point; the first one wins a tie. Returns null for an empty list.
+     */
+    public static ReferenceResult best(List<ReferenceResult> results) {
+        ReferenceResult best = null;
+        for (ReferenceResult result : results) {
+            if (best == null || best.getVariantPoint() < result.getVariantPoint()) {
+                best = result;
+            }
+        }
+        return best;
+    }
+}
@@ -3,34 +3,43 @@ package org.assessment.codesplitter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Scanner;
 
 public abstract class PointCalculator {
 
-    protected static LinkedList<ArrayList<String>> refCodeList;
+    protected final ReferenceCode reference;
 
     public PointCalculator(File refCode) throws FileNotFoundException {
-        Scanner source = new Scanner(refCode);
-        refCodeList = new LinkedList<>();
-        source.nextLine();
-        while (source.hasNext()) {
-            String line = source.nextLine();
-            if (line.startsWith("/** ASSESSMENT")) {
-                refCodeList.add(new ArrayList<>());
-                while (!line.startsWith(" */")) {
-                    line = source.nextLine();
-                }
-                line = source.nextLine();
-            }
-            refCodeList.getLast().add(line);
-        }
-        source.close();
+        this(ReferenceCache.get(refCode));
+    }
+
+    public PointCalculator(ReferenceCode reference) {
+        this.reference = reference;
     }
 
     public int refCodeSize() {
-        return refCodeList.size();
+        return reference.size();
+    }
+
+    public ReferenceCode getReference() {
+        return reference;
+    }
+
+    /**
+     * Describes everything besides the reference code that changes the point, so that computed splits can be
+     * cached. Calculators whose results must not be cached return null.
+     */
+    public String configuration() {
+        return getClass().getName();
     }
 
     public abstract double calculate(ArrayList<Integer> splits, ArrayList<String> file);
+
+    /**
+     * Returns a scorer for lines [start, end) of the file against a single reference segment, such that
+     * calculate(splits, file) is the sum of the segment scores plus the missing score of the unassigned
+     * reference segments. Calculators whose point does not decompose this way return null.
+     */
+    public SegmentScorer segmentScorer(ArrayList<String> file) {
+        return null;
+    }
 }
@@ -0,0 +1,57 @@
+package org.assessment.codesplitter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed reference code files keyed by canonical path. An entry is reused only while the file keeps the
+ * modification time and size it had when it was parsed.
+ */
+public class ReferenceCache {
+
+    private static final int CAPACITY = 1024;
+
+    private static final Map<String, CachedReference> cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedReference>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedReference> eldest) {
+            return size() > CAPACITY;
+        }
+    });
+
+    private static class CachedReference {
+        private final long modified;
+        private final long size;
+        private final ReferenceCode reference;
+
+        CachedReference(long modified, long size, ReferenceCode reference) {
+            this.modified = modified;
+            this.size = size;
+            this.reference = reference;
+        }
+    }
+
+    public static ReferenceCode get(File refCode) throws FileNotFoundException {
+        File file;
+        try {
+            file = refCode.getCanonicalFile();
+        } catch (IOException e) {
+            file = refCode.getAbsoluteFile();
+        }
+        long modified = file.lastModified();
+        long size = file.length();
+        CachedReference entry = cache.get(file.getPath());
+        if (entry == null || entry.modified != modified || entry.size != size) {
+            entry = new CachedReference(modified, size, new ReferenceCode(file));
+            cache.put(file.getPath(), entry);
+        }
+        return entry.reference;
+    }
+
+    public static void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,124 @@
+package org.assessment.codesplitter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The segments of a reference code file, one per ASSESSMENT block. Instances are immutable, so they can be shared
+ * between calculators and threads.
+ */
+public final class ReferenceCode {
+
+    private static final Pattern GRADE_PATTERN = Pattern.compile("@grade");
+
+    private final List<List<String>> segments;
+    private final int[] segmentSizes;
+    private final int preambleSize;
+    private final int gradeCount;
+    private final boolean textAfterGrade;
+
+    public ReferenceCode(File refCode) throws FileNotFoundException {
+        this(readLines(refCode));
+    }
+
+    /**
+     * Parses the lines of a reference code file. The first line is skipped, every ASSESSMENT block starts a new
+     * segment and lines before the first block belong to no segment.
+     */
+    public ReferenceCode(List<String> lines) {
+        ArrayList<List<String>> refCodeList = new ArrayList<>();
+        int i = 1;
+        int preamble = 0;
+        while (i < lines.size()) {
+            String line = lines.get(i++);
+            if (refCodeList.isEmpty() && !line.startsWith("/** ASSESSMENT")) {
+                preamble++;
+            }
+            if (line.startsWith("/** ASSESSMENT")) {
+                refCodeList.add(new ArrayList<>());
+                while (!line.startsWith(" */") && i < lines.size()) {
+                    line = lines.get(i++);
+                }
+                if (i == lines.size()) {
+                    break;
+                }
+                line = lines.get(i++);
+            }
+            if (!refCodeList.isEmpty()) {
+                refCodeList.get(refCodeList.size() - 1).add(line);
+            }
+        }
+        ArrayList<List<String>> copy = new ArrayList<>();
+        for (List<String> segment : refCodeList) {
+            copy.add(Collections.unmodifiableList(segment));
+        }
+        this.segments = Collections.unmodifiableList(copy);
+        this.segmentSizes = new int[copy.size()];
+        for (int j = 0; j < segmentSizes.length; j++) {
+            segmentSizes[j] = copy.get(j).size();
+        }
+        this.preambleSize = preamble;
+        int grades = 0;
+        boolean hasText = true;
+        for (String line : lines) {
+            Matcher matcher = GRADE_PATTERN.matcher(line);
+            if (matcher.find()) {
+                grades++;
+                if (matcher.end() >= line.length() - 1) {
+                    hasText = false;
+                }
+            }
+        }
+        this.gradeCount = grades;
+        this.textAfterGrade = hasText;
+    }
+
+    private static ArrayList<String> readLines(File refCode) throws FileNotFoundException {
+        ArrayList<String> lines = new ArrayList<>();
+        Scanner source = new Scanner(refCode);
+        while (source.hasNext()) {
+            lines.add(source.nextLine());
+        }
+        source.close();
+        return lines;
+    }
+
+    public int size() {
+        return segments.size();
+    }
+
+    /**
+     * Number of lines before the first segment, not counting the skipped first line.
+     */
+    public int preambleSize() {
+        return preambleSize;
+    }
+
+    public List<String> getSegment(int segment) {
+        return segments.get(segment);
+    }
+
+    public int segmentSize(int segment) {
+        return segmentSizes[segment];
+    }
+
+    /**
+     * Number of lines with an @grade tag, which is the number of segments graders are expected to fill.
+     */
+    public int getGradeCount() {
+        return gradeCount;
+    }
+
+    /**
+     * Whether every @grade tag is followed by a grade.
+     */
+    public boolean hasTextAfterGrade() {
+        return textAfterGrade;
+    }
+}
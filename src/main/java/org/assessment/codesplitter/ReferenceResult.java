@@ -0,0 +1,53 @@
+package org.assessment.codesplitter;
+
+import java.io.File;
+import java.util.ArrayList;
+
+public class ReferenceResult {
+    private final File refCode;
+    private final int segments;
+    private final int preamble;
+    private final SearchResult result;
+
+    public ReferenceResult(File refCode, int segments, int preamble, SearchResult result) {
+        this.refCode = refCode;
+        this.segments = segments;
+        this.preamble = preamble;
+        this.result = result;
+    }
+
+    public File getRefCode() {
+        return refCode;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public SearchResult getResult() {
+        return result;
+    }
+
+    public ArrayList<Integer> getSplits() {
+        return result.getSplits();
+    }
+
+    public double getPoint() {
+        return result.getPoint();
+    }
+
+    /**
+     * The point, also charged for the lines before the first split as far as they differ from the lines before the
+     * first segment of the reference code. The point alone leaves those lines free, so a short variant could put
+     * all its splits at the end of the submission and beat every variant that covers it.
+     */
+    public double getVariantPoint() {
+        ArrayList<Integer> splits = result.getSplits();
+        return splits.isEmpty() ? result.getPoint() : result.getPoint() - Math.abs(splits.get(0) - preamble);
+    }
+
+    @Override
+    public String toString() {
+        return refCode.getName() + ": " + getVariantPoint() + (result.isOptimal() ? "" : " (not optimal)");
+    }
+}
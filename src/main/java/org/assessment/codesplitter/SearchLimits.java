@@ -0,0 +1,33 @@
+package org.assessment.codesplitter;
+
+public class SearchLimits {
+
+    public static final SearchLimits NONE = new SearchLimits(0, 0, 0);
+
+    private final long timeoutMillis;
+    private final long maxNodes;
+    private final int beamWidth;
+
+    /**
+     * @param timeoutMillis wall-clock budget of the search, or 0 for none
+     * @param maxNodes      number of search nodes the search may visit, or 0 for none
+     * @param beamWidth     number of partial split lists kept per segment, or 0 to search exhaustively
+     */
+    public SearchLimits(long timeoutMillis, long maxNodes, int beamWidth) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxNodes = maxNodes;
+        this.beamWidth = beamWidth;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+}
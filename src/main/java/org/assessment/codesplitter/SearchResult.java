@@ -0,0 +1,36 @@
+package org.assessment.codesplitter;
+
+import java.util.ArrayList;
+
+public class SearchResult {
+    private final ArrayList<Integer> splits;
+    private final double point;
+    private final boolean optimal;
+    private final long nodes;
+
+    public SearchResult(ArrayList<Integer> splits, double point, boolean optimal, long nodes) {
+        this.splits = splits;
+        this.point = point;
+        this.optimal = optimal;
+        this.nodes = nodes;
+    }
+
+    public ArrayList<Integer> getSplits() {
+        return splits;
+    }
+
+    public double getPoint() {
+        return point;
+    }
+
+    /**
+     * Whether the search finished within its limits, so that no split list has a better point.
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,5 @@
+package org.assessment.codesplitter;
+
+public enum SearchStrategy {
+    BACKTRACK, BRANCH_AND_BOUND, DYNAMIC
+}
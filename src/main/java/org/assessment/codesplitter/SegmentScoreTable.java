@@ -0,0 +1,70 @@
+package org.assessment.codesplitter;
+
+import java.util.Arrays;
+
+public class SegmentScoreTable {
+
+    private final SegmentScorer scorer;
+    private final int[] candidates;
+    private final int fileSize;
+    private final double[][][] scores;
+    private final double[][] bounds;
+    private final long maxScores;
+    private long cachedScores;
+
+    public SegmentScoreTable(SegmentScorer scorer, int[] candidates, int fileSize, int segments) {
+        this(scorer, candidates, fileSize, segments, Long.MAX_VALUE);
+    }
+
+    /**
+     * A table that remembers at most maxScores segment scores; once it is full, further scores are computed on
+     * every call.
+     */
+    public SegmentScoreTable(SegmentScorer scorer, int[] candidates, int fileSize, int segments, long maxScores) {
+        this.scorer = scorer;
+        this.maxScores = maxScores;
+        this.candidates = candidates;
+        this.fileSize = fileSize;
+        this.scores = new double[segments][candidates.length][];
+        this.bounds = new double[segments + 1][candidates.length];
+        for (double[] row : bounds) {
+            Arrays.fill(row, Double.NaN);
+        }
+    }
+
+    private int line(int index) {
+        return index == candidates.length ? fileSize : candidates[index];
+    }
+
+    /**
+     * Point of the segment that starts on candidate from and ends before candidate to, where candidates.length
+     * stands for the end of the file.
+     */
+    public double score(int from, int to, int segment) {
+        double[] row = scores[segment][from];
+        if (row == null) {
+            if (cachedScores + candidates.length + 1 > maxScores) {
+                return scorer.score(line(from), line(to), segment);
+            }
+            cachedScores += candidates.length + 1;
+            row = new double[candidates.length + 1];
+            Arrays.fill(row, Double.NaN);
+            scores[segment][from] = row;
+        }
+        if (Double.isNaN(row[to])) {
+            row[to] = scorer.score(line(from), line(to), segment);
+        }
+        return row[to];
+    }
+
+    public double bound(int from, int segment) {
+        if (Double.isNaN(bounds[segment][from])) {
+            bounds[segment][from] = scorer.bound(line(from), segment);
+        }
+        return bounds[segment][from];
+    }
+
+    public double missingScore(int fromSegment) {
+        return scorer.missingScore(fromSegment);
+    }
+}
@@ -0,0 +1,20 @@
+package org.assessment.codesplitter;
+
+public interface SegmentScorer {
+
+    /**
+     * Point of lines [start, end) when they form the given reference segment.
+     */
+    double score(int start, int end, int segment);
+
+    /**
+     * Point of the reference segments from fromSegment on when no split is placed for them.
+     */
+    double missingScore(int fromSegment);
+
+    /**
+     * Upper bound of the point the lines [start, file end) can still get when they are split into the reference
+     * segments from segment on. It must never be less than the best completion, otherwise pruning loses splits.
+     */
+    double bound(int start, int segment);
+}
@@ -0,0 +1,176 @@
+package org.assessment.codesplitter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tokenizes C-like source code (Java, C, C++) in a single pass over the text.
+ */
+public class SourceLexer {
+
+    private static final ThreadLocal<Cached> lastLexed = new ThreadLocal<>();
+
+    private static class Cached {
+        private final String[] lines;
+        private final LexedSource source;
+
+        Cached(String[] lines, LexedSource source) {
+            this.lines = lines;
+            this.source = source;
+        }
+
+        boolean matches(List<String> other) {
+            if (other.size() != lines.length) {
+                return false;
+            }
+            for (int i = 0; i < lines.length; i++) {
+                if (other.get(i) != lines[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Lexes the lines of a file. The last result of the calling thread is reused when it was made from the very
+     * same line strings, so the splitter and the calculators share one pass over a submission.
+     */
+    public static LexedSource lex(List<String> lines) {
+        Cached cached = lastLexed.get();
+        if (cached != null && cached.matches(lines)) {
+            return cached.source;
+        }
+        String[] snapshot = lines.toArray(new String[0]);
+        LexedSource source = lex(String.join("\n", snapshot), snapshot.length);
+        lastLexed.set(new Cached(snapshot, source));
+        return source;
+    }
+
+    public static LexedSource lex(String text) {
+        int lineCount = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lineCount++;
+            }
+        }
+        return lex(text, lineCount);
+    }
+
+    private static LexedSource lex(String text, int lineCount) {
+        // an empty list still has one (empty) line of text
+        int[] lineFlags = new int[lineCount];
+        int[] lineStarts = new int[Math.max(lineCount, 1) + 1];
+        int[] lineTokens = new int[Math.max(lineCount, 1) + 1];
+        int capacity = text.length() / 4 + 16;
+        byte[] kinds = new byte[capacity];
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        int count = 0;
+        int line = 0;
+        boolean blockComment = false;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                line++;
+                lineStarts[line] = i + 1;
+                lineTokens[line] = count;
+                i++;
+                continue;
+            }
+            if (blockComment) {
+                if (c == '*' && i + 1 < length && text.charAt(i + 1) == '/') {
+                    blockComment = false;
+                    i += 2;
+                } else {
+                    i++;
+                }
+                continue;
+            }
+            if (c <= ' ') {
+                i++;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && text.charAt(i + 1) == '/') {
+                while (i < length && text.charAt(i) != '\n') {
+                    i++;
+                }
+                continue;
+            }
+            if (c == '/' && i + 1 < length && text.charAt(i + 1) == '*') {
+                blockComment = true;
+                i += 2;
+                continue;
+            }
+            int start = i;
+            byte kind;
+            if (c == '"' || c == '\'') {
+                kind = c == '"' ? LexedSource.STRING : LexedSource.CHARACTER;
+                i++;
+                while (i < length && text.charAt(i) != c && text.charAt(i) != '\n') {
+                    i += text.charAt(i) == '\\' && i + 1 < length && text.charAt(i + 1) != '\n' ? 2 : 1;
+                }
+                if (i < length && text.charAt(i) == c) {
+                    i++;
+                }
+            } else if (Character.isJavaIdentifierStart(c)) {
+                kind = LexedSource.IDENTIFIER;
+                while (i < length && Character.isJavaIdentifierPart(text.charAt(i))) {
+                    i++;
+                }
+                lineFlags[line] |= keywordFlag(text, start, i);
+            } else if (c >= '0' && c <= '9') {
+                kind = LexedSource.NUMBER;
+                while (i < length && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '.' || text.charAt(i) == '_')) {
+                    i++;
+                }
+            } else {
+                kind = LexedSource.SYMBOL;
+                i++;
+                if (c == '{') {
+                    lineFlags[line] |= LexedSource.OPEN_BRACE;
+                } else if (c == '}') {
+                    lineFlags[line] |= LexedSource.CLOSE_BRACE;
+                }
+            }
+            if (count == kinds.length) {
+                kinds = Arrays.copyOf(kinds, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            kinds[count] = kind;
+            starts[count] = start;
+            ends[count] = i;
+            count++;
+            lineFlags[line] |= LexedSource.CODE;
+        }
+        for (int l = line + 1; l < lineTokens.length; l++) {
+            lineStarts[l] = length + 1;
+            lineTokens[l] = count;
+        }
+        for (int l = 0; l < lineCount; l++) {
+            int first = lineTokens[l];
+            if (lineTokens[l + 1] - first == 1 && kinds[first] == LexedSource.SYMBOL && text.charAt(starts[first]) == '{') {
+                lineFlags[l] |= LexedSource.BRACE_ONLY;
+            }
+            if (lineStarts[l + 1] - 1 == lineStarts[l]) {
+                lineFlags[l] |= LexedSource.EMPTY;
+            }
+        }
+        return new LexedSource(text, lineFlags, lineStarts, lineTokens, kinds, starts, ends, count);
+    }
+
+    private static int keywordFlag(String text, int start, int end) {
+        int length = end - start;
+        if (length == 2 && text.startsWith("if", start)) {
+            return LexedSource.IF;
+        } else if (length == 5 && text.startsWith("while", start)) {
+            return LexedSource.WHILE;
+        } else if (length == 3 && text.startsWith("for", start)) {
+            return LexedSource.FOR;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,217 @@
+package org.assessment.codesplitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SplitCache {
+
+    private static final String FORMAT_VERSION = "1";
+    private static final String FILE_SUFFIX = ".splits";
+    private static final int DEFAULT_MAX_FILES = 4096;
+
+    private final File directory;
+    private final int maxFiles;
+    private final Map<String, ArrayList<Integer>> memory;
+    // number of result files in the directory, or -1 until it was first counted
+    private int fileCount = -1;
+
+    /**
+     * Creates a cache that keeps the last capacity results in memory and up to 4096 results in the given directory.
+     * A null directory keeps the cache in memory only.
+     */
+    public SplitCache(File directory, int capacity) {
+        this(directory, capacity, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Creates a cache that keeps the last capacity results in memory and the last maxFiles results in the given
+     * directory. Every edit of an open file is a new content key, so the directory drops the results that were
+     * used least recently once it holds more than maxFiles of them.
+     */
+    public SplitCache(File directory, int capacity, int maxFiles) {
+        this.directory = directory;
+        this.maxFiles = maxFiles;
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<String, ArrayList<Integer>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArrayList<Integer>> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * Returns the best splits of the file, computing them only when neither memory nor the cache directory has
+     * them for the same submission content, reference code and calculator configuration.
+     */
+    public ArrayList<ArrayList<Integer>> calculateBestSplitsforFile(File fileName, File refCode, PointCalculator calculator, SearchStrategy strategy) throws IOException, CloneNotSupportedException, BracesNotMatchException {
+        ArrayList<ArrayList<Integer>> splitLines = new ArrayList<>();
+        splitLines.add(calculateBestSplits(CodeSplitter.readLines(fileName), refCode, calculator, strategy));
+        return splitLines;
+    }
+
+    public ArrayList<Integer> calculateBestSplits(ArrayList<String> codeLines, File refCode, PointCalculator calculator, SearchStrategy strategy) throws IOException, CloneNotSupportedException, BracesNotMatchException {
+        String key = key(codeLines, refCode, calculator);
+        ArrayList<Integer> splits = key == null ? null : get(key);
+        if (splits == null) {
+            splits = CodeSplitter.findBestSplits(codeLines, calculator, strategy).getKey();
+            if (key != null) {
+                put(key, splits);
+            }
+        }
+        return new ArrayList<>(splits);
+    }
+
+    /**
+     * Like calculateBestSplits, but the search is bounded by the given limits. Only results proven optimal are
+     * cached, so an interrupted search is tried again next time.
+     */
+    public SearchResult calculateBestSplits(ArrayList<String> codeLines, File refCode, PointCalculator calculator, SearchLimits limits) throws IOException, BracesNotMatchException {
+        String key = key(codeLines, refCode, calculator);
+        ArrayList<Integer> splits = key == null ? null : get(key);
+        if (splits != null) {
+            return new SearchResult(new ArrayList<>(splits), calculator.calculate(splits, codeLines), true, 0);
+        }
+        SearchResult result = CodeSplitter.findBestSplits(codeLines, calculator, limits);
+        if (key != null && result.isOptimal()) {
+            put(key, new ArrayList<>(result.getSplits()));
+        }
+        return result;
+    }
+
+    public static String key(ArrayList<String> codeLines, File refCode, PointCalculator calculator) throws IOException {
+        String configuration = calculator.configuration();
+        if (configuration == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((FORMAT_VERSION + "\n" + configuration + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(refCode.toPath()));
+            digest.update((byte) 0);
+            for (String line : codeLines) {
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public ArrayList<Integer> get(String key) {
+        ArrayList<Integer> splits = memory.get(key);
+        if (splits == null && directory != null) {
+            File file = new File(directory, key + FILE_SUFFIX);
+            splits = load(file);
+            if (splits != null) {
+                memory.put(key, splits);
+                // the modification time orders the files for eviction
+                file.setLastModified(System.currentTimeMillis());
+            }
+        }
+        return splits;
+    }
+
+    public void put(String key, ArrayList<Integer> splits) {
+        memory.put(key, splits);
+        if (directory != null) {
+            store(new File(directory, key + FILE_SUFFIX), splits);
+        }
+    }
+
+    private static ArrayList<Integer> load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+            ArrayList<Integer> splits = new ArrayList<>();
+            if (!content.isEmpty()) {
+                for (String split : content.split(",")) {
+                    splits.add(Integer.parseInt(split.trim()));
+                }
+            }
+            return splits;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void store(File file, ArrayList<Integer> splits) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < splits.size(); i++) {
+            if (i > 0) {
+                content.append(',');
+            }
+            content.append(splits.get(i));
+        }
+        try {
+            if (!directory.exists()) {
+                directory.mkdirs();
+            }
+            boolean added = !file.exists();
+            File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+            Files.write(tmp.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (added) {
+                fileAdded();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counts a new result file and, when there are more than maxFiles, deletes the least recently used ones until a
+     * tenth of the room is free again, so that the directory is not listed on every store.
+     */
+    private synchronized void fileAdded() {
+        if (fileCount >= 0) {
+            fileCount++;
+            if (fileCount <= maxFiles) {
+                return;
+            }
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        fileCount = files.length;
+        if (fileCount <= maxFiles) {
+            return;
+        }
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+        int keep = maxFiles - maxFiles / 10;
+        for (int i = 0; i < files.length - keep; i++) {
+            if (files[order[i]].delete()) {
+                fileCount--;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.assessment.codesplitter;
+
+import java.util.ArrayList;
+
+public class SplitResult {
+    private final String fileName;
+    private final ArrayList<Integer> splits;
+    private final double point;
+    private final long elapsedMillis;
+    private final Exception error;
+
+    public SplitResult(String fileName, ArrayList<Integer> splits, double point, long elapsedMillis, Exception error) {
+        this.fileName = fileName;
+        this.splits = splits;
+        this.point = point;
+        this.elapsedMillis = elapsedMillis;
+        this.error = error;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public ArrayList<Integer> getSplits() {
+        return splits;
+    }
+
+    public double getPoint() {
+        return point;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return fileName + " failed after " + elapsedMillis + " ms: " + error;
+        }
+        return fileName + " is done with " + point + " accuracy in " + elapsedMillis + " ms.";
+    }
+}
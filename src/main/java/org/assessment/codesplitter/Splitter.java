@@ -1,45 +1,68 @@
 package org.assessment.codesplitter;
 
-import org.assessment.codesplitter.BracesNotMatchException;
-import org.assessment.codesplitter.Command;
-import org.assessment.codesplitter.Pair;
-
 import java.util.*;
 
 public class Splitter {
 
-    private static boolean bracesCheck(ArrayList<Pair<Command, Integer>> commands) {
+    private static final byte OPEN = (byte) Command.OPEN.ordinal();
+    private static final byte CLOSE = (byte) Command.CLOSE.ordinal();
+    private static final byte STATEMENT = (byte) Command.STATEMENT.ordinal();
+
+    /**
+     * Commands of a source file as parallel arrays: kinds[i] is the ordinal of a Command and lines[i] its line.
+     */
+    private static class Commands {
+        private final byte[] kinds;
+        private final int[] lines;
+        private int size;
+
+        Commands(int capacity) {
+            kinds = new byte[capacity];
+            lines = new int[capacity];
+        }
+
+        void add(byte kind, int line) {
+            kinds[size] = kind;
+            lines[size] = line;
+            size++;
+        }
+    }
+
+    private static boolean bracesCheck(Commands commands) {
         int open = 0, close = 0;
-        for (Pair<Command, Integer> command : commands) {
-            if (command.getKey().equals(Command.OPEN)) {
+        for (int i = 0; i < commands.size; i++) {
+            if (commands.kinds[i] == OPEN) {
                 open++;
-            } else if (command.getKey().equals(Command.CLOSE)) {
+            } else if (commands.kinds[i] == CLOSE) {
                 close++;
             }
         }
         return open == close;
     }
 
-    private static ArrayList<Pair<Command, Integer>> createCommands(ArrayList<String> lines) {
-        ArrayList<Pair<Command, Integer>> commands = new ArrayList<>();
+    private static Commands createCommands(List<String> lines) {
+        LexedSource source = SourceLexer.lex(lines);
+        // a line yields at most a CLOSE and an OPEN command
+        Commands commands = new Commands(2 * lines.size());
         int i = 1;
-        if (lines.get(i).trim().equals("{")) {
+        if (source.has(i, LexedSource.BRACE_ONLY)) {
             i++;
         }
         while (i < lines.size() - 1) {
-            if (lines.get(i).contains("}")) {
-                commands.add(new Pair<>(Command.CLOSE, i));
+            boolean closes = source.has(i, LexedSource.CLOSE_BRACE);
+            if (closes) {
+                commands.add(CLOSE, i);
             }
-            if (lines.get(i).contains("{")) {
-                if (lines.get(i).trim().equals("{")) {
-                    commands.remove(commands.size() - 1);
-                    commands.add(new Pair<>(Command.OPEN, i - 1));
+            if (source.has(i, LexedSource.OPEN_BRACE)) {
+                if (source.has(i, LexedSource.BRACE_ONLY)) {
+                    commands.size--;
+                    commands.add(OPEN, i - 1);
                 } else {
-                    commands.add(new Pair<>(Command.OPEN, i));
+                    commands.add(OPEN, i);
                 }
             } else {
-                if (!lines.get(i).isEmpty() && !lines.get(i).contains("}")) {
-                    commands.add(new Pair<>(Command.STATEMENT, i));
+                if (!source.has(i, LexedSource.EMPTY) && !closes) {
+                    commands.add(STATEMENT, i);
                 }
             }
             i++;
@@ -47,45 +70,77 @@ public class Splitter {
         return commands;
     }
 
-    private static int solve(int curIndex, ArrayList<Pair<Command, Integer>> commands, ArrayList<Integer> splitLines) {
-        ArrayList<Integer> tmp = new ArrayList<>();
-        for (int i = curIndex + 1; i < commands.size(); i++) {
-            if (commands.get(i).getKey().equals(Command.CLOSE)) {
-                if (tmp.size() > 1) {
-                    for (Integer integer : tmp) {
-                        if (integer != -1) {
-                            splitLines.add(integer);
+    /**
+     * Walks the commands with an explicit stack of open blocks instead of recursing once per nesting level. The
+     * items of every open block (statement lines, or -1 for a nested block) are kept on one shared buffer; when a
+     * block with more than one item closes, its statements and its opening line become split lines. Returns the
+     * new number of split lines, or -1 if a block is never closed.
+     */
+    private static int solve(Commands commands, int[] splitLines, int count) {
+        int[] blocks = new int[commands.size];
+        int[] blockItems = new int[commands.size];
+        int[] items = new int[commands.size];
+        int depth = 0;
+        int itemCount = 0;
+        for (int i = 0; i < commands.size; i++) {
+            byte kind = commands.kinds[i];
+            if (depth == 0) {
+                if (kind == OPEN) {
+                    blocks[0] = i;
+                    blockItems[0] = itemCount;
+                    depth = 1;
+                } else {
+                    splitLines[count++] = commands.lines[i];
+                }
+            } else if (kind == CLOSE) {
+                depth--;
+                int first = blockItems[depth];
+                if (itemCount - first > 1) {
+                    for (int j = first; j < itemCount; j++) {
+                        if (items[j] != -1) {
+                            splitLines[count++] = items[j];
                         }
                     }
-                    splitLines.add(commands.get(curIndex).getValue());
+                    splitLines[count++] = commands.lines[blocks[depth]];
+                }
+                itemCount = first;
+                if (depth > 0) {
+                    items[itemCount++] = -1;
                 }
-                return i;
-            } else if (commands.get(i).getKey().equals(Command.OPEN)) {
-                i = solve(i, commands, splitLines);
-                tmp.add(-1);
+            } else if (kind == OPEN) {
+                blocks[depth] = i;
+                blockItems[depth] = itemCount;
+                depth++;
             } else {
-                tmp.add(commands.get(i).getValue());
+                items[itemCount++] = commands.lines[i];
             }
         }
-        return -1;
+        return depth == 0 ? count : -1;
+    }
+
+    /**
+     * Candidate split lines in ascending order, as a primitive array.
+     */
+    public static int[] splitPoints(List<String> lines) throws BracesNotMatchException {
+        Commands commands = createCommands(lines);
+        if (!bracesCheck(commands)) {
+            throw new BracesNotMatchException(new ArrayList<>(lines));
+        }
+        int[] splitLines = new int[commands.size + 1];
+        int count = solve(commands, splitLines, 1);
+        if (count == -1) {
+            throw new BracesNotMatchException(new ArrayList<>(lines));
+        }
+        Arrays.sort(splitLines, 0, count);
+        return Arrays.copyOf(splitLines, count);
     }
 
     public static ArrayList<Integer> split(ArrayList<String> lines) throws BracesNotMatchException {
-        ArrayList<Integer> splitLines = new ArrayList<>();
-        splitLines.add(0);
-        ArrayList<Pair<Command, Integer>> commands = createCommands(lines);
-        if (bracesCheck(commands)) {
-            for (int i = 0; i < commands.size(); i++) {
-                if (commands.get(i).getKey().equals(Command.OPEN)) {
-                    i = solve(i, commands, splitLines);
-                } else {
-                    splitLines.add(commands.get(i).getValue());
-                }
-            }
-        } else {
-            throw new BracesNotMatchException(lines);
+        int[] points = splitPoints(lines);
+        ArrayList<Integer> splitLines = new ArrayList<>(points.length);
+        for (int point : points) {
+            splitLines.add(point);
         }
-        Collections.sort(splitLines);
         return splitLines;
     }
-}
\ No newline at end of file
+}
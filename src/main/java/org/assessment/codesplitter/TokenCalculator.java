@@ -0,0 +1,223 @@
+package org.assessment.codesplitter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Scores a segment by how many of its tokens line up with the tokens of the reference segment: the point is the
+ * negated insert/delete distance 2 * LCS - |segment| - |reference|, so reordered or padded code still finds the
+ * segment it belongs to. The LCS is computed bit-parallel (Hyyro) over token ids, 64 reference tokens per word.
+ */
+public class TokenCalculator extends PointCalculator {
+
+    private static final int NO_MATCH = -1;
+
+    // token ids are interned from the reference; submission tokens the reference never uses get NO_MATCH
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    // masks[k][id] has bit i set when token i of reference segment k has that id, or is null if it has none
+    private final long[][][] masks;
+    private final int[] segmentTokens;
+    private final int[] remainingTokens;
+
+    public TokenCalculator(File refCode) throws FileNotFoundException {
+        this(ReferenceCache.get(refCode));
+    }
+
+    public TokenCalculator(ReferenceCode reference) {
+        super(reference);
+        int[][] segmentIds = new int[refCodeSize()][];
+        for (int k = 0; k < refCodeSize(); k++) {
+            LexedSource segment = SourceLexer.lex(reference.getSegment(k));
+            segmentIds[k] = new int[segment.tokenCount()];
+            for (int i = 0; i < segment.tokenCount(); i++) {
+                Integer id = ids.get(key(segment, i));
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(key(segment, i), id);
+                }
+                segmentIds[k][i] = id;
+            }
+        }
+        this.masks = new long[refCodeSize()][ids.size()][];
+        this.segmentTokens = new int[refCodeSize()];
+        this.remainingTokens = new int[refCodeSize() + 1];
+        for (int k = 0; k < refCodeSize(); k++) {
+            int[] tokens = segmentIds[k];
+            segmentTokens[k] = tokens.length;
+            for (int i = 0; i < tokens.length; i++) {
+                if (masks[k][tokens[i]] == null) {
+                    masks[k][tokens[i]] = new long[words(tokens.length)];
+                }
+                masks[k][tokens[i]][i >>> 6] |= 1L << i;
+            }
+        }
+        for (int k = refCodeSize() - 1; k >= 0; k--) {
+            remainingTokens[k] = remainingTokens[k + 1] + segmentTokens[k];
+        }
+    }
+
+    /**
+     * String and character literals match any literal of the same kind; every other token matches by its text.
+     */
+    private static String key(LexedSource source, int token) {
+        switch (source.kind(token)) {
+            case LexedSource.STRING:
+                return "\"";
+            case LexedSource.CHARACTER:
+                return "'";
+            default:
+                return source.tokenText(token);
+        }
+    }
+
+    private static int words(int tokens) {
+        return Math.max((tokens + 63) >>> 6, 1);
+    }
+
+    /**
+     * Token ids of a submission plus the index of the first token of every line.
+     */
+    private class SubmissionTokens {
+        private final int[] ids;
+        private final int[] lineTokens;
+
+        SubmissionTokens(ArrayList<String> file) {
+            LexedSource source = SourceLexer.lex(file);
+            this.ids = new int[source.tokenCount()];
+            for (int i = 0; i < ids.length; i++) {
+                Integer id = TokenCalculator.this.ids.get(key(source, i));
+                ids[i] = id == null ? NO_MATCH : id;
+            }
+            this.lineTokens = new int[file.size() + 1];
+            for (int line = 0; line <= file.size(); line++) {
+                lineTokens[line] = source.firstToken(Math.min(line, source.lineCount()));
+            }
+        }
+
+        int count(int start, int end) {
+            return lineTokens[end] - lineTokens[start];
+        }
+    }
+
+    /**
+     * Bit-parallel LCS against one reference segment. Bit i of v is 0 when reference token i is part of the LCS
+     * of the tokens fed so far; feeding a token costs one add and one subtract per word.
+     */
+    private class Alignment {
+        private final long[][] segmentMasks;
+        private final int tokens;
+        private final long[] v;
+        private int fed;
+
+        Alignment(int segment) {
+            this.segmentMasks = masks[segment];
+            this.tokens = segmentTokens[segment];
+            this.v = new long[words(tokens)];
+            reset();
+        }
+
+        void reset() {
+            Arrays.fill(v, -1L);
+            fed = 0;
+        }
+
+        void feed(int id) {
+            fed++;
+            long[] mask = id == NO_MATCH ? null : segmentMasks[id];
+            if (mask == null) {
+                return;
+            }
+            long carry = 0;
+            long borrow = 0;
+            for (int w = 0; w < v.length; w++) {
+                long x = v[w];
+                long u = x & mask[w];
+                long sum = x + u + carry;
+                carry = ((x & u) | ((x | u) & ~sum)) >>> 63;
+                long difference = x - u - borrow;
+                borrow = ((~x & u) | (~(x ^ u) & difference)) >>> 63;
+                v[w] = sum | difference;
+            }
+        }
+
+        int lcs() {
+            int lcs = 0;
+            for (int w = 0; w < v.length; w++) {
+                int bits = Math.min(tokens - (w << 6), 64);
+                long valid = bits == 64 ? -1L : (1L << bits) - 1;
+                lcs += bits - Long.bitCount(v[w] & valid);
+            }
+            return lcs;
+        }
+
+        double point() {
+            return 2 * lcs() - fed - tokens;
+        }
+    }
+
+    private double segmentPoint(SubmissionTokens submission, int start, int end, int segment) {
+        Alignment alignment = new Alignment(segment);
+        for (int i = submission.lineTokens[start]; i < submission.lineTokens[end]; i++) {
+            alignment.feed(submission.ids[i]);
+        }
+        return alignment.point();
+    }
+
+    @Override
+    public double calculate(ArrayList<Integer> splits, ArrayList<String> file) {
+        SubmissionTokens submission = new SubmissionTokens(file);
+        double total = 0;
+        for (int i = 0; i < splits.size() - 1; i++) {
+            total += segmentPoint(submission, splits.get(i), splits.get(i + 1), i);
+        }
+        total += segmentPoint(submission, splits.get(splits.size() - 1), file.size(), splits.size() - 1);
+        total -= remainingTokens[splits.size()];
+        return total;
+    }
+
+    @Override
+    public SegmentScorer segmentScorer(ArrayList<String> file) {
+        SubmissionTokens submission = new SubmissionTokens(file);
+        int fileEnd = file.size();
+        return new SegmentScorer() {
+            // one alignment per reference segment, resumed while the searches extend a segment line by line
+            private final Alignment[] alignments = new Alignment[refCodeSize()];
+            private final int[] starts = new int[refCodeSize()];
+            private final int[] ends = new int[refCodeSize()];
+
+            @Override
+            public double score(int start, int end, int segment) {
+                Alignment alignment = alignments[segment];
+                if (alignment == null) {
+                    alignment = new Alignment(segment);
+                    alignments[segment] = alignment;
+                    starts[segment] = -1;
+                }
+                if (starts[segment] != start || ends[segment] > end) {
+                    alignment.reset();
+                    starts[segment] = start;
+                    ends[segment] = start;
+                }
+                for (int i = submission.lineTokens[ends[segment]]; i < submission.lineTokens[end]; i++) {
+                    alignment.feed(submission.ids[i]);
+                }
+                ends[segment] = end;
+                return alignment.point();
+            }
+
+            @Override
+            public double missingScore(int fromSegment) {
+                return -remainingTokens[fromSegment];
+            }
+
+            @Override
+            public double bound(int start, int segment) {
+                // the distance of every segment is at least its token count difference
+                return -Math.abs(submission.count(start, fileEnd) - remainingTokens[segment]);
+            }
+        };
+    }
+}
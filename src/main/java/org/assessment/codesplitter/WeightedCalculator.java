@@ -5,91 +5,148 @@ import org.assessment.codesplitter.PointCalculator;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 public class WeightedCalculator extends PointCalculator {
 
+    private static final int IF = 0;
+    private static final int WHILE = 1;
+    private static final int FOR = 2;
+    private static final int STATEMENT = 3;
+
     private final double ifWeight;
     private final double whileWeight;
     private final double forWeight;
     private final double statementWeight;
-    private final HashMap<Integer, HashMap<Integer, Integer>> map;
+    // counts[c][k] is the number of class c lines in reference segment k, remainingCounts[c][k] the same for k and after
+    private final int[][] counts;
+    private final int[][] remainingCounts;
+    private volatile LineCounts lastLineCounts;
+
+    /**
+     * Class counts of a lexed submission: prefix[c][i] is the number of class c lines before line i.
+     */
+    private static class LineCounts {
+        private final LexedSource source;
+        private final int[][] prefix;
+
+        LineCounts(LexedSource source) {
+            this.source = source;
+            this.prefix = new int[4][source.lineCount() + 1];
+            for (int i = 0; i < source.lineCount(); i++) {
+                for (int c = 0; c < 4; c++) {
+                    prefix[c][i + 1] = prefix[c][i];
+                }
+                prefix[lineClass(source, i)][i + 1]++;
+            }
+        }
+
+        int count(int lineClass, int start, int end) {
+            return prefix[lineClass][end] - prefix[lineClass][start];
+        }
+    }
 
     public WeightedCalculator(File refCode, double ifWeight, double whileWeight, double forWeight, double statementWeight) throws FileNotFoundException {
-        super(refCode);
+        this(ReferenceCache.get(refCode), ifWeight, whileWeight, forWeight, statementWeight);
+    }
+
+    public WeightedCalculator(ReferenceCode reference, double ifWeight, double whileWeight, double forWeight, double statementWeight) {
+        super(reference);
         this.ifWeight = ifWeight;
         this.whileWeight = whileWeight;
         this.forWeight = forWeight;
         this.statementWeight = statementWeight;
-        this.map = new HashMap<>();
+        this.counts = new int[3][refCodeSize()];
+        this.remainingCounts = new int[3][refCodeSize() + 1];
         for (int i = 0; i < refCodeSize(); i++) {
-            map.put(i, new HashMap<>());
-            for (int j = 0; j < refCodeList.get(i).size(); j++) {
-                String currentLine = refCodeList.get(i).get(j);
-                if (currentLine.contains("if")) {
-                    map.get(i).put(0, map.get(i).getOrDefault(0, 0) + 1);
-                } else if (currentLine.contains("while")) {
-                    map.get(i).put(1, map.get(i).getOrDefault(1, 0) + 1);
-                } else if (currentLine.contains("for")) {
-                    map.get(i).put(2, map.get(i).getOrDefault(2, 0) + 1);
+            LexedSource segment = SourceLexer.lex(reference.getSegment(i));
+            for (int j = 0; j < segment.lineCount(); j++) {
+                int lineClass = lineClass(segment, j);
+                if (lineClass != STATEMENT) {
+                    counts[lineClass][i]++;
                 }
             }
         }
+        for (int c = 0; c < 3; c++) {
+            for (int i = refCodeSize() - 1; i >= 0; i--) {
+                remainingCounts[c][i] = remainingCounts[c][i + 1] + counts[c][i];
+            }
+        }
+    }
+
+    @Override
+    public String configuration() {
+        return super.configuration() + "(" + ifWeight + "," + whileWeight + "," + forWeight + "," + statementWeight + ")";
     }
 
     @Override
     public double calculate(ArrayList<Integer> splits, ArrayList<String> file) {
+        LineCounts lineCounts = lineCounts(file);
         double total = 0;
         for (int i = 0; i < splits.size() - 1; i++) {
-            int ifCounter = 0;
-            int whileCounter = 0;
-            int forCounter = 0;
-            for (int j = splits.get(i); j < splits.get(i + 1); j++) {
-                String currentLine = file.get(j);
-                if (currentLine.contains("if")) {
-                    ifCounter++;
-                    if (map.get(i).getOrDefault(0, 0) >= ifCounter) {
-                        total += ifWeight;
-                    }
-                } else if (currentLine.contains("while")) {
-                    whileCounter++;
-                    if (map.get(i).getOrDefault(1, 0) >= whileCounter) {
-                        total += whileWeight;
-                    }
-                }  else if (currentLine.contains("for")) {
-                    forCounter++;
-                    if (map.get(i).getOrDefault(2, 0) >= forCounter) {
-                        total += forWeight;
-                    }
-                } else {
-                    total += statementWeight;
-                }
-            }
+            total += segmentPoint(lineCounts, splits.get(i), splits.get(i + 1), i);
         }
-        int ifCounter = 0;
-        int whileCounter = 0;
-        int forCounter = 0;
-        for (int i = splits.get(splits.size() - 1); i < file.size(); i++) {
-            String currentLine = file.get(i);
-            if (currentLine.contains("if")) {
-                ifCounter++;
-                if (map.get(splits.size() - 1).getOrDefault(0, 0) >= ifCounter) {
-                    total += ifWeight;
-                }
-            } else if (currentLine.contains("while")) {
-                whileCounter++;
-                if (map.get(splits.size() - 1).getOrDefault(1, 0) >= whileCounter) {
-                    total += whileWeight;
-                }
-            }  else if (currentLine.contains("for")) {
-                forCounter++;
-                if (map.get(splits.size() - 1).getOrDefault(2, 0) >= forCounter) {
-                    total += forWeight;
-                }
-            } else {
-                total += statementWeight;
+        total += segmentPoint(lineCounts, splits.get(splits.size() - 1), file.size(), splits.size() - 1);
+        return total;
+    }
+
+    @Override
+    public SegmentScorer segmentScorer(ArrayList<String> file) {
+        LineCounts lineCounts = lineCounts(file);
+        int fileEnd = file.size();
+        return new SegmentScorer() {
+            @Override
+            public double score(int start, int end, int segment) {
+                return segmentPoint(lineCounts, start, end, segment);
+            }
+
+            @Override
+            public double missingScore(int fromSegment) {
+                return 0;
+            }
+
+            @Override
+            public double bound(int start, int segment) {
+                return Math.min(lineCounts.count(IF, start, fileEnd), remainingCounts[IF][segment]) * Math.max(ifWeight, 0)
+                        + Math.min(lineCounts.count(WHILE, start, fileEnd), remainingCounts[WHILE][segment]) * Math.max(whileWeight, 0)
+                        + Math.min(lineCounts.count(FOR, start, fileEnd), remainingCounts[FOR][segment]) * Math.max(forWeight, 0)
+                        + lineCounts.count(STATEMENT, start, fileEnd) * statementWeight;
             }
+        };
+    }
+
+    /**
+     * Returns the class counts of the file, reusing those of the previous call for the same lexed submission so
+     * that repeated calculate calls during a search do not walk the file again.
+     */
+    private LineCounts lineCounts(ArrayList<String> file) {
+        LexedSource source = SourceLexer.lex(file);
+        LineCounts lineCounts = lastLineCounts;
+        if (lineCounts == null || lineCounts.source != source) {
+            lineCounts = new LineCounts(source);
+            lastLineCounts = lineCounts;
         }
-        return total;
+        return lineCounts;
+    }
+
+    private static int lineClass(LexedSource source, int line) {
+        if (source.has(line, LexedSource.IF)) {
+            return IF;
+        } else if (source.has(line, LexedSource.WHILE)) {
+            return WHILE;
+        } else if (source.has(line, LexedSource.FOR)) {
+            return FOR;
+        }
+        return STATEMENT;
+    }
+
+    /**
+     * Every statement line scores, while if, while and for lines score only up to the number the reference segment
+     * has of them.
+     */
+    private double segmentPoint(LineCounts lineCounts, int start, int end, int segment) {
+        return Math.min(lineCounts.count(IF, start, end), counts[IF][segment]) * ifWeight
+                + Math.min(lineCounts.count(WHILE, start, end), counts[WHILE][segment]) * whileWeight
+                + Math.min(lineCounts.count(FOR, start, end), counts[FOR][segment]) * forWeight
+                + lineCounts.count(STATEMENT, start, end) * statementWeight;
     }
 }